@@ -0,0 +1,46 @@
+package com.company.benchmark;
+
+import com.company.AppConfig;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * 基准测试共用的工具：按需覆盖 app.properties 中的配置来创建容器，以及屏蔽邮件输出。
+ */
+final class BenchmarkContexts {
+
+	private BenchmarkContexts() {
+	}
+
+	/**
+	 * 与 new AnnotationConfigApplicationContext(AppConfig.class) 相同，但 overrides 中的配置优先于 app.properties。
+	 */
+	static AnnotationConfigApplicationContext create(Map<String, Object> overrides) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", overrides));
+		context.register(AppConfig.class);
+		context.refresh();
+		return context;
+	}
+
+	/**
+	 * MailService 把邮件写到 System.err，基准测试中替换成丢弃所有输出的流，只测量格式化和投递本身。
+	 */
+	static PrintStream discardStdErr() {
+		PrintStream original = System.err;
+		System.setErr(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		return original;
+	}
+}
@@ -0,0 +1,82 @@
+package com.company.benchmark;
+
+import com.company.service.MailService;
+import com.company.service.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MailService 的 sendLoginMail / sendRegistrationMail，分别测同步投递和异步入队（调用方看到的延迟）。
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailServiceBenchmark {
+
+	@Param({ "false", "true" })
+	boolean asyncMail;
+
+	private AnnotationConfigApplicationContext context;
+	private MailService mailService;
+	private PrintStream stdErr;
+	private final User user = new User(1, "bob@example.com", "password", "Bob");
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stdErr = BenchmarkContexts.discardStdErr();
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("app.mail.async", asyncMail);
+		// 异步模式下队列满了就丢弃，测量的是调用方线程的开销而不是 worker 的投递速度
+		overrides.put("app.mail.overflow", "DROP");
+		context = BenchmarkContexts.create(overrides);
+		mailService = context.getBean(MailService.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+		System.setErr(stdErr);
+	}
+
+	@Benchmark
+	public void sendLoginMail() {
+		mailService.sendLoginMail(user);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void sendLoginMail_8threads() {
+		mailService.sendLoginMail(user);
+	}
+
+	@Benchmark
+	public void sendRegistrationMail() {
+		mailService.sendRegistrationMail(user);
+	}
+
+	@Benchmark
+	public String getTime() {
+		return mailService.getTime();
+	}
+}
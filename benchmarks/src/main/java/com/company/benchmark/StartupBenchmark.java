@@ -0,0 +1,79 @@
+package com.company.benchmark;
+
+import com.company.AppConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * new AnnotationConfigApplicationContext(AppConfig.class) 的启动耗时。
+ * coldStart 每个 fork 只测一次（SingleShotTime），即 JVM 刚启动、类尚未加载时的真实冷启动；
+ * warmStart 在同一个 JVM 中反复创建容器，反映容器本身（扫描、解析、装配）的开销。
+ * 带 Scanning 后缀的版本以 -Dspring.index.ignore=true 启动，忽略编译期生成的 META-INF/spring.components，
+ * 退回到 classpath 扫描，用来和读取组件索引的版本对比。
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class StartupBenchmark {
+
+	private PrintStream stdErr;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stdErr = BenchmarkContexts.discardStdErr();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setErr(stdErr);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public void coldStart() {
+		new AnnotationConfigApplicationContext(AppConfig.class).close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(value = 10, jvmArgsAppend = "-Dspring.index.ignore=true")
+	public void coldStartScanning() {
+		new AnnotationConfigApplicationContext(AppConfig.class).close();
+	}
+
+	@Benchmark
+	@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(1)
+	public void warmStart() {
+		new AnnotationConfigApplicationContext(AppConfig.class).close();
+	}
+
+	@Benchmark
+	@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(value = 1, jvmArgsAppend = "-Dspring.index.ignore=true")
+	public void warmStartScanning() {
+		new AnnotationConfigApplicationContext(AppConfig.class).close();
+	}
+}
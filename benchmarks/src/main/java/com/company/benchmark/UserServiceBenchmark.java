@@ -0,0 +1,159 @@
+package com.company.benchmark;
+
+import com.company.service.BulkRegistration;
+import com.company.service.LoginFailedException;
+import com.company.service.Registration;
+import com.company.service.User;
+import com.company.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * UserService 的 login / failedLogin / getUser / register，用户数由 userCount 控制，线程数分别为 1 和 8。
+ * registerAll / getUsers 每次调用处理 BATCH 个用户，吞吐量按用户数计算（即导入速度 users/us）。
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+	@Param({ "1000", "100000" })
+	int userCount;
+
+	@Param({ "false", "true" })
+	boolean asyncMail;
+
+	@Param({ "heap", "compact" })
+	String storage;
+
+	// PBKDF2 迭代次数；默认取 1，否则 setUp 中注册 10 万用户要花几分钟。可以用 -p passwordIterations=10000 测真实代价
+	@Param({ "1" })
+	int passwordIterations;
+
+	private AnnotationConfigApplicationContext context;
+	private UserService userService;
+	private PrintStream stdErr;
+	private String[] emails;
+	private long[] ids;
+	private final AtomicLong registrations = new AtomicLong();
+	private long[] batchIds;
+
+	private static final int BATCH = 10000;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		stdErr = BenchmarkContexts.discardStdErr();
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("app.mail.async", asyncMail);
+		overrides.put("app.mail.overflow", "DROP");
+		overrides.put("app.password.iterations", passwordIterations);
+		overrides.put("app.users.storage", storage);
+		context = BenchmarkContexts.create(overrides);
+		userService = context.getBean(UserService.class);
+		emails = new String[userCount];
+		ids = new long[userCount];
+		for (int i = 0; i < userCount; i++) {
+			User user = userService.register("user" + i + "@example.com", "password", "User" + i);
+			emails[i] = user.getEmail();
+			ids[i] = user.getId();
+		}
+		batchIds = new long[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			batchIds[i] = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+		System.setErr(stdErr);
+	}
+
+	@Benchmark
+	public User login() {
+		return userService.login(emails[ThreadLocalRandom.current().nextInt(emails.length)], "password");
+	}
+
+	@Benchmark
+	@Threads(8)
+	public User login_8threads() {
+		return login();
+	}
+
+	// 撞库：随机 email 加错误密码，来自同一个来源；大部分请求会被 LoginThrottle 在查用户之前拒绝
+	@Benchmark
+	public Object failedLogin() {
+		try {
+			return userService.login(emails[ThreadLocalRandom.current().nextInt(emails.length)], "wrong", "attacker");
+		} catch (LoginFailedException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Object failedLogin_8threads() {
+		return failedLogin();
+	}
+
+	@Benchmark
+	public User getUser() {
+		return userService.getUser(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public User getUser_8threads() {
+		return getUser();
+	}
+
+	@Benchmark
+	public User register() {
+		return userService.register("bench" + registrations.incrementAndGet() + "@example.com", "password", "Bench");
+	}
+
+	@Benchmark
+	@Threads(8)
+	public User register_8threads() {
+		return register();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public BulkRegistration registerAll() {
+		long batch = registrations.incrementAndGet();
+		return userService.registerAll(IntStream.range(0, BATCH)
+				.mapToObj(i -> new Registration("bulk" + batch + "_" + i + "@example.com", "password", "Bulk")));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public User[] getUsers() {
+		return userService.getUsers(batchIds);
+	}
+}
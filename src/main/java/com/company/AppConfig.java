@@ -1,17 +1,28 @@
 package com.company;
 
 
+import com.company.service.CompactUserRepository;
+import com.company.service.ConcurrentUserRepository;
+import com.company.service.IndexedUserRepository;
 import com.company.service.User;
+import com.company.service.UserRepository;
 import com.company.service.UserService;
+import com.company.service.shard.ShardedUserRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.*;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
 
 @Configuration //表示该类是一个配置类，因为我们创建ApplicationContext时，使用的实现类是AnnotationConfigApplicationContext，必须传入一个标注了@Configuration的类名。
 @ComponentScan //告诉容器，自动搜索当前类所在的包以及子包，把所有标注为 @Component 的Bean自动创建出来，并根据 @Autowired 进行装配。必须合理设计包的层次结构，才能发挥@ComponentScan的威力。
+// 组件索引：pom.xml 中引入了 spring-context-indexer，编译时会把所有 @Component 类写入 META-INF/spring.components，
+// 启动时 @ComponentScan 直接读取这个索引，不再遍历 classpath 解析 class 文件；
+// 索引不存在时自动退回扫描，也可以用 JVM 参数 -Dspring.index.ignore=true 强制扫描。
 @PropertySource("app.properties") //表示读取classpath的app.properties；Spring容器看到@PropertySource("app.properties")注解后，自动读取这个配置文件，然后，我们使用@Value正常注入
 public class AppConfig {          //该方式可以极大地简化读取配置的麻烦。注意区分其和 AppService.java 中的 private Resource resource; 的使用场景
 	// 定制 Bean--创建第三方Bean:
@@ -45,9 +56,56 @@ public class AppConfig {          //该方式可以极大地简化读取配置
 	// 	return ZoneId.of(zoneId);
 	// }
 
+	// 用户存储也按同样的方式创建，具体用哪个实现由配置决定：
+	// 		app.users.storage=heap     每个用户一个 User 对象，放在 ConcurrentHashMap 中（默认）
+	// 		app.users.storage=compact  列式紧凑存储，字符串以 UTF-8 字节放在共享的大块字节区中，app.users.off-heap=true 时放到堆外
+	// app.users.shards 大于 0 时把用户按 email 的一致性哈希分到多个分片上（ShardedUserRepository），每个分片用上面选的存储：
+	// 		app.users.shard-transport=local     分片在进程内
+	// 		app.users.shard-transport=loopback  每个分片在 127.0.0.1 上起一个 UserShardServer，通过 socket 访问
+	// 		app.users.shard-addresses=host:port,...  连接已经在运行的 UserShardServer，此时忽略上面两项
+	// 		                                         app.users.shard-secret 是与服务端（环境变量 USER_SHARD_SECRET）相同的共享密钥
+	// app.users.sorted-index=true 时外面再包一层 IndexedUserRepository，提供按 email / name 的前缀查询和分页遍历（SortedUserIndex）；
+	// 默认关闭：两个跳表索引每个用户要多占几百字节，和 compact 存储一起用时会抵消它省下的内存
+	@Bean
+	UserRepository createUserRepository(@Value("${app.users.storage:heap}") String storage,
+			@Value("${app.users.initial-capacity:1024}") int initialCapacity,
+			@Value("${app.users.off-heap:false}") boolean offHeap,
+			@Value("${app.users.sorted-index:false}") boolean sortedIndex,
+			@Value("${app.users.shards:0}") int shards,
+			@Value("${app.users.shard-transport:local}") String shardTransport,
+			@Value("${app.users.shard-addresses:}") String shardAddresses,
+			@Value("${app.users.shard-secret:}") String shardSecret) throws IOException {
+		UserRepository repository;
+		if (!shardAddresses.isEmpty()) {
+			if (shardSecret.isEmpty()) {
+				throw new IllegalArgumentException("app.users.shard-secret is required with app.users.shard-addresses");
+			}
+			repository = ShardedUserRepository.remote(shardAddresses, shardSecret.getBytes(StandardCharsets.UTF_8));
+		} else if (shards > 0) {
+			int shardCapacity = Math.max(16, initialCapacity / shards);
+			repository = ShardedUserRepository.create(shards, shardTransport,
+					() -> createStorage(storage, shardCapacity, offHeap));
+		} else {
+			repository = createStorage(storage, initialCapacity, offHeap);
+		}
+		repository.add(new User(1, "bob@example.com", "password", "Bob")); // bob
+		repository.add(new User(2, "alice@example.com", "password", "Alice")); // alice
+		repository.add(new User(3, "tom@example.com", "password", "Tom")); // tom
+		return sortedIndex ? new IndexedUserRepository(repository) : repository;
+	}
+
+	private static UserRepository createStorage(String storage, int initialCapacity, boolean offHeap) {
+		if ("heap".equals(storage)) {
+			return new ConcurrentUserRepository();
+		} else if ("compact".equals(storage)) {
+			return new CompactUserRepository(initialCapacity, offHeap);
+		}
+		throw new IllegalArgumentException("unknown app.users.storage: " + storage);
+	}
+
 
 	@SuppressWarnings("resource")
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		/**
 		 * 从 Spring开发--IoC容器--使用 Annotation 配置 开始：
 		 * 使用Spring的IoC容器，实际上就是通过类似XML这样的配置文件，把我们自己的Bean的依赖关系描述出来，然后让容器来创建并装配Bean。
@@ -224,6 +282,9 @@ public class AppConfig {          //该方式可以极大地简化读取配置
 		// 测试 IoC容器--使用Resource：
 		AppService appService = context.getBean(AppService.class);
 		appService.printLogo();
+
+		// 关闭容器，触发 @PreDestroy（例如 MailService.shutdown 会把异步队列中剩余的邮件投递完）:
+		((ConfigurableApplicationContext) context).close();
 	}
 }
 
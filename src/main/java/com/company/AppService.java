@@ -1,13 +1,13 @@
 package com.company;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
-
-import javax.annotation.PostConstruct;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
+import com.company.resource.CachedResource;
+import com.company.resource.ResourceRegistry;
+import com.company.startup.ParallelInit;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
@@ -29,18 +29,33 @@ public class AppService {
 	@Value("classpath:/logo.txt")
 	private Resource resource;
 
-	private String logo;
-
-	@PostConstruct
-	public void init() throws IOException {
-		try (BufferedReader reader = new BufferedReader(
-				new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
-			this.logo = reader.lines().collect(Collectors.joining("\n"));
-		}
+	// 资源内容交给 ResourceRegistry 缓存：classpath 资源只读一次，file: 资源读成快照并在修改后自动重新加载
+	@Autowired
+	private ResourceRegistry resourceRegistry;
+
+	private CachedResource logo;
+
+	// 原来的实现（每个 Bean 各自把整个资源读成 String，printLogo 再复制一遍输出）:
+	// @PostConstruct
+	// public void init() throws IOException {
+	// 	try (BufferedReader reader = new BufferedReader(
+	// 			new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+	// 		this.logo = reader.lines().collect(Collectors.joining("\n"));
+	// 	}
+	// }
+	@ParallelInit
+	public void init() {
+		this.logo = resourceRegistry.get(resource);
 	}
 
-	public void printLogo() {
-		System.out.println(logo);
+	public void printLogo() throws IOException {
+		// 把缓存的字节写到标准输出，不解码成 String；System.out 只是 OutputStream，newChannel 会经过一个中间 byte[]，并不是零拷贝
+		System.out.flush();
+		WritableByteChannel out = Channels.newChannel(System.out);
+		logo.writeTo(out);
+		if (logo.size() > 0 && logo.getBytes().get(logo.size() - 1) != '\n') {
+			System.out.println();
+		}
 		System.out.println("app.version: " + version);
 	}
 }
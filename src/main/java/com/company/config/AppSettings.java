@@ -0,0 +1,69 @@
+package com.company.config;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 某一时刻配置的不可变快照，字段在构造时已经解析成最终类型。
+ * 热路径上通过 ConfigurationManager.current() 读取（一次 volatile 读），不加锁也不做字符串解析。
+ */
+public final class AppSettings {
+
+	private final long revision;
+	private final String name;
+	private final String version;
+	private final ZoneId zoneId;
+	private final int passwordIterations;
+	private final Map<String, String> properties;
+
+	AppSettings(long revision, String name, String version, ZoneId zoneId, int passwordIterations,
+			Map<String, String> properties) {
+		this.revision = revision;
+		this.name = name;
+		this.version = version;
+		this.zoneId = zoneId;
+		this.passwordIterations = passwordIterations;
+		this.properties = Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * 每发布一次新快照加 1。
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/** app.name */
+	public String getName() {
+		return name;
+	}
+
+	/** app.version */
+	public String getVersion() {
+		return version;
+	}
+
+	/** app.zone */
+	public ZoneId getZoneId() {
+		return zoneId;
+	}
+
+	/** app.password.iterations */
+	public int getPasswordIterations() {
+		return passwordIterations;
+	}
+
+	/**
+	 * 所有 app.* 配置的原始字符串值，供没有专门字段的配置使用（不要在热路径上解析）。
+	 */
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	@Override
+	public String toString() {
+		return "AppSettings{revision=" + revision + ", name=" + name + ", version=" + version + ", zoneId=" + zoneId
+				+ ", passwordIterations=" + passwordIterations + "}";
+	}
+}
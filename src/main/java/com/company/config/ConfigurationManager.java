@@ -0,0 +1,179 @@
+package com.company.config;
+
+import com.company.resource.CachedResource;
+import com.company.resource.ResourceRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 可热更新的配置。
+ * <p>
+ * 启动时从 Environment（@PropertySource("app.properties") 以及更高优先级的配置源）解析出一个 AppSettings 快照，
+ * 通过唯一的 volatile 引用发布。app.config.watch 中列出的配置文件交给 ResourceRegistry 监视：
+ * 文件变化后重新解析，替换 Environment 中同名的 PropertySource，再生成并发布新快照，最后通知订阅者。
+ * 新配置解析失败（例如非法的 app.zone）时保留旧快照。
+ * <p>
+ * 注意 AppConfig 中创建的 ZoneId Bean 仍然是启动时的值；需要跟随配置变化的 Bean 应该读 current() 或 subscribe。
+ */
+@Component
+public class ConfigurationManager {
+
+	@Autowired
+	ConfigurableEnvironment environment;
+
+	@Autowired
+	ResourceLoader resourceLoader;
+
+	@Autowired
+	ResourceRegistry resourceRegistry;
+
+	@Value("${app.config.watch:classpath:app.properties}")
+	String[] watchedLocations;
+
+	private volatile AppSettings current;
+	private final List<SettingsListener> listeners = new CopyOnWriteArrayList<>();
+
+	@PostConstruct
+	public void init() {
+		this.current = parse(1);
+		for (String location : watchedLocations) {
+			watch(location.trim());
+		}
+	}
+
+	public AppSettings current() {
+		return current;
+	}
+
+	public void subscribe(SettingsListener listener) {
+		listeners.add(listener);
+	}
+
+	private void watch(String location) {
+		Resource resource = resourceLoader.getResource(location);
+		// @PropertySource 注册的 PropertySource 以资源描述为名（例如 "class path resource [app.properties]"）
+		String sourceName = resource.getDescription();
+		try {
+			if (!resource.isFile()) {
+				// 在 jar 中的 classpath 资源无法监视
+				return;
+			}
+			// classpath 资源在开发时通常是 target/classes 下的文件，按文件处理才能被监视
+			CachedResource cached = resourceRegistry.get(new FileSystemResource(resource.getFile()));
+			cached.onReload(changed -> reload(sourceName, changed));
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to watch " + location, e);
+		}
+	}
+
+	private synchronized void reload(String sourceName, CachedResource changed) {
+		if (changed.size() == 0) {
+			// 多半是编辑器保存时先截断了文件，等写完后的下一次事件
+			return;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = new ByteBufferInputStream(changed.getBytes())) {
+			properties.load(in);
+		} catch (IOException e) {
+			System.err.println("In the ConfigurationManager:failed to parse " + sourceName + ": " + e);
+			return;
+		}
+		MutablePropertySources sources = environment.getPropertySources();
+		PropertySource<?> previousSource = sources.get(sourceName);
+		PropertiesPropertySource replacement = new PropertiesPropertySource(sourceName, properties);
+		if (previousSource != null) {
+			sources.replace(sourceName, replacement);
+		} else {
+			sources.addLast(replacement);
+		}
+		AppSettings previous = this.current;
+		AppSettings next;
+		try {
+			next = parse(previous.getRevision() + 1);
+		} catch (RuntimeException e) {
+			// 新配置有误：恢复原来的 PropertySource，继续使用旧快照
+			if (previousSource != null) {
+				sources.replace(sourceName, previousSource);
+			} else {
+				sources.remove(sourceName);
+			}
+			System.err.println("In the ConfigurationManager:rejected new configuration from " + sourceName + ": " + e);
+			return;
+		}
+		if (next.getProperties().equals(previous.getProperties())) {
+			return;
+		}
+		this.current = next;
+		System.out.println("In the ConfigurationManager:Published " + next);
+		for (SettingsListener listener : listeners) {
+			try {
+				listener.onChange(previous, next);
+			} catch (RuntimeException e) {
+				System.err.println("In the ConfigurationManager:listener failed: " + e);
+			}
+		}
+	}
+
+	private AppSettings parse(long revision) {
+		Map<String, String> properties = new TreeMap<>();
+		for (PropertySource<?> source : environment.getPropertySources()) {
+			if (source instanceof EnumerablePropertySource) {
+				for (String key : ((EnumerablePropertySource<?>) source).getPropertyNames()) {
+					if (key.startsWith("app.") && !properties.containsKey(key)) {
+						properties.put(key, environment.getProperty(key));
+					}
+				}
+			}
+		}
+		return new AppSettings(revision,
+				environment.getProperty("app.name", ""),
+				environment.getProperty("app.version", ""),
+				ZoneId.of(environment.getProperty("app.zone", "Z")),
+				environment.getProperty("app.password.iterations", Integer.class, 10000),
+				properties);
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+	}
+}
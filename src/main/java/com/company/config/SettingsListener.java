@@ -0,0 +1,10 @@
+package com.company.config;
+
+/**
+ * 配置变化的回调，在 ConfigurationManager 发布新快照之后调用。
+ */
+@FunctionalInterface
+public interface SettingsListener {
+
+	void onChange(AppSettings previous, AppSettings current);
+}
@@ -0,0 +1,53 @@
+package com.company.metrics;
+
+/**
+ * 一个 Bean 在容器启动时各阶段的耗时（微秒）。
+ * 各阶段都是自身耗时：构造或注入过程中顺带创建的其他 Bean 的时间已经扣除，记在那些 Bean 自己名下。
+ */
+public class BeanLifecycle {
+
+	private final String beanName;
+	private final String beanClass;
+	private final long constructionMicros;
+	private final long injectionMicros;
+	private final long initMicros;
+
+	public BeanLifecycle(String beanName, String beanClass, long constructionMicros, long injectionMicros,
+			long initMicros) {
+		this.beanName = beanName;
+		this.beanClass = beanClass;
+		this.constructionMicros = constructionMicros;
+		this.injectionMicros = injectionMicros;
+		this.initMicros = initMicros;
+	}
+
+	public String getBeanName() {
+		return beanName;
+	}
+
+	public String getBeanClass() {
+		return beanClass;
+	}
+
+	public long getConstructionMicros() {
+		return constructionMicros;
+	}
+
+	public long getInjectionMicros() {
+		return injectionMicros;
+	}
+
+	public long getInitMicros() {
+		return initMicros;
+	}
+
+	public long getTotalMicros() {
+		return constructionMicros + injectionMicros + initMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-40s construct=%dus inject=%dus init=%dus", beanName, constructionMicros,
+				injectionMicros, initMicros);
+	}
+}
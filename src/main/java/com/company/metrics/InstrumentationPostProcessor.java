@@ -0,0 +1,293 @@
+package com.company.metrics;
+
+import com.company.startup.ParallelInitListener;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 BeanPostProcessor 的埋点：
+ * 1. 记录每个 Bean 的构造、注入和 @PostConstruct 初始化耗时（并行模式下推迟执行的 @ParallelInit 由 ParallelInitProcessor 回调补记）；
+ * 2. 把 app.metrics.instrumented-beans 中列出的 Bean 包装成代理，记录每个 public 方法的延迟直方图和失败计数。
+ * 指标注册到 JMX（com.company:type=Metrics），并且可以按 app.metrics.dump-interval-seconds 定期打印到 System.out。
+ * <p>
+ * 它本身是 BeanPostProcessor，比普通 Bean 更早创建，@Value 注入不到它身上，所以通过 EnvironmentAware 读取配置。
+ * 实现 PriorityOrdered 并取最高优先级，保证它的 postProcessBeforeInitialization 在执行 @PostConstruct
+ * 的 CommonAnnotationBeanPostProcessor 之前被调用，这样初始化耗时才能包含 @PostConstruct 方法。
+ */
+@Component
+public class InstrumentationPostProcessor
+		implements InstantiationAwareBeanPostProcessor, PriorityOrdered, EnvironmentAware, DisposableBean,
+		ParallelInitListener {
+
+	private static final String OBJECT_NAME = "com.company:type=Metrics";
+
+	private final Metrics metrics = new Metrics();
+	private final ConcurrentMap<String, Frame> frames = new ConcurrentHashMap<>();
+	// 当前线程上正在创建的 Bean，用来把嵌套创建的 Bean 的耗时从外层 Bean 中扣除
+	private final ThreadLocal<Deque<Frame>> creating = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private Set<String> instrumentedBeans = new HashSet<>();
+	private ScheduledExecutorService dumper;
+	private ObjectName objectName;
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		String beans = environment.getProperty("app.metrics.instrumented-beans", "");
+		for (String bean : beans.split(",")) {
+			if (!bean.trim().isEmpty()) {
+				instrumentedBeans.add(bean.trim());
+			}
+		}
+		if (environment.getProperty("app.metrics.jmx", Boolean.class, true)) {
+			registerMBean();
+		}
+		long interval = environment.getProperty("app.metrics.dump-interval-seconds", Long.class, 0L);
+		if (interval > 0) {
+			dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			});
+			dumper.scheduleAtFixedRate(() -> System.out.print(metrics.dump()), interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+		Frame frame = new Frame(beanName, beanClass.getName());
+		Deque<Frame> stack = creating.get();
+		frame.parent = stack.peek();
+		stack.push(frame);
+		frames.put(beanName, frame);
+		return null;
+	}
+
+	@Override
+	public boolean postProcessAfterInstantiation(Object bean, String beanName) throws BeansException {
+		Frame frame = frames.get(beanName);
+		if (frame != null) {
+			frame.enter(Phase.INJECT);
+		}
+		return true;
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+		Frame frame = frames.get(beanName);
+		if (frame != null) {
+			frame.enter(Phase.INIT);
+		}
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		Frame frame = frames.remove(beanName);
+		if (frame != null) {
+			frame.enter(Phase.DONE);
+			Deque<Frame> stack = creating.get();
+			// 正常情况下栈顶就是它；中途创建失败的 Bean 不会走到这里，顺便把它们弹掉
+			while (!stack.isEmpty() && stack.pop() != frame) {
+			}
+			if (frame.parent != null) {
+				frame.parent.nested[frame.parent.phase.ordinal()] += frame.elapsed();
+			}
+			metrics.addLifecycle(frame.toLifecycle());
+		}
+		if (instrumentedBeans.contains(beanName)) {
+			return instrument(bean, beanName);
+		}
+		return bean;
+	}
+
+	/**
+	 * 打开 app.startup.parallel 后 @ParallelInit 推迟到所有单例创建完之后才执行，不在上面记录的初始化阶段内，这里补记。
+	 */
+	@Override
+	public void onParallelInit(String beanName, long nanos) {
+		metrics.addInit(beanName, TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	private Object instrument(Object bean, String beanName) {
+		ProxyFactory factory = new ProxyFactory(bean);
+		factory.setProxyTargetClass(true);
+		ConcurrentMap<Method, InstrumentedMethod> byMethod = new ConcurrentHashMap<>();
+		factory.addAdvice((MethodInterceptor) invocation -> {
+			Method method = invocation.getMethod();
+			if (method.getDeclaringClass() == Object.class) {
+				return invocation.proceed();
+			}
+			InstrumentedMethod instrumented = byMethod.get(method);
+			if (instrumented == null) {
+				instrumented = byMethod.computeIfAbsent(method, m -> new InstrumentedMethod(
+						metrics.method(beanName + "." + m.getName() + signature(m)), m));
+			}
+			long start = System.nanoTime();
+			try {
+				Object result = onlyAdvice(invocation)
+						? (Object) instrumented.handle.invokeExact(invocation.getThis(), invocation.getArguments())
+						: invocation.proceed();
+				instrumented.metrics.recordSuccess(System.nanoTime() - start);
+				return result;
+			} catch (Throwable e) {
+				instrumented.metrics.recordFailure(System.nanoTime() - start, e);
+				throw e;
+			}
+		});
+		return factory.getProxy(bean.getClass().getClassLoader());
+	}
+
+	/**
+	 * 代理上只有埋点这一个 advice 时，可以跳过 invocation.proceed() 直接通过 MethodHandle 调用目标对象：
+	 * CGLIB 的 MethodProxy 会把目标方法抛出的每个异常包装成 InvocationTargetException（要收集一次栈）再拆开，
+	 * 登录失败这类高频的预分配异常因此会变得很贵。
+	 * 代理之后又被加了其他 advisor（例如通过 Advised 接口）时必须走 proceed()，否则会绕过它们。
+	 */
+	private static boolean onlyAdvice(MethodInvocation invocation) {
+		if (!(invocation instanceof ProxyMethodInvocation)) {
+			return false;
+		}
+		Object proxy = ((ProxyMethodInvocation) invocation).getProxy();
+		return proxy instanceof Advised && ((Advised) proxy).getAdvisors().length == 1;
+	}
+
+	private static final class InstrumentedMethod {
+		final MethodMetrics metrics;
+		// (Object target, Object[] args) -> Object
+		final MethodHandle handle;
+
+		InstrumentedMethod(MethodMetrics metrics, Method method) {
+			this.metrics = metrics;
+			try {
+				method.setAccessible(true);
+				this.handle = MethodHandles.lookup().unreflect(method)
+						.asSpreader(Object[].class, method.getParameterCount())
+						.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("cannot instrument " + method, e);
+			}
+		}
+	}
+
+	private static String signature(Method method) {
+		// 重载的方法（例如两个 registerAll）按参数类型区分
+		StringBuilder sb = new StringBuilder("(");
+		Class<?>[] types = method.getParameterTypes();
+		for (int i = 0; i < types.length; i++) {
+			sb.append(i == 0 ? "" : ",").append(types[i].getSimpleName());
+		}
+		return sb.append(')').toString();
+	}
+
+	private void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				// 同一个 JVM 中先后创建多个容器（例如基准测试）时，以最新的为准
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(metrics, name);
+			this.objectName = name;
+		} catch (JMException e) {
+			System.err.println("In the InstrumentationPostProcessor:failed to register " + OBJECT_NAME + ": " + e);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				// 已经被后创建的容器替换掉了
+			}
+		}
+	}
+
+	private enum Phase {
+		CONSTRUCT, INJECT, INIT, DONE
+	}
+
+	private static final class Frame {
+		final String beanName;
+		final String beanClass;
+		final long[] startedAt = new long[Phase.values().length];
+		final long[] nested = new long[Phase.values().length];
+		Frame parent;
+		Phase phase = Phase.CONSTRUCT;
+
+		Frame(String beanName, String beanClass) {
+			this.beanName = beanName;
+			this.beanClass = beanClass;
+			startedAt[Phase.CONSTRUCT.ordinal()] = System.nanoTime();
+		}
+
+		void enter(Phase next) {
+			startedAt[next.ordinal()] = System.nanoTime();
+			phase = next;
+		}
+
+		long elapsed() {
+			return startedAt[Phase.DONE.ordinal()] - startedAt[Phase.CONSTRUCT.ordinal()];
+		}
+
+		/**
+		 * 某个阶段的自身耗时：阶段总耗时减去其间嵌套创建其他 Bean 的时间。
+		 */
+		long selfMicros(Phase p) {
+			long end = startedAt[p.ordinal() + 1];
+			long start = startedAt[p.ordinal()];
+			if (end == 0 || start == 0) {
+				return 0;
+			}
+			return TimeUnit.NANOSECONDS.toMicros(Math.max(0, end - start - nested[p.ordinal()]));
+		}
+
+		BeanLifecycle toLifecycle() {
+			return new BeanLifecycle(beanName, beanClass, selfMicros(Phase.CONSTRUCT), selfMicros(Phase.INJECT),
+					selfMicros(Phase.INIT));
+		}
+	}
+}
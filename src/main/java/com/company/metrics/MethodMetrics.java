@@ -0,0 +1,51 @@
+package com.company.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个被拦截方法的调用延迟直方图和失败计数，失败再按异常类型分别计数（例如 LoginFailedException）。
+ * 不按异常消息区分：消息里常带着 id、email 之类的数据，按它计数会让 map（以及通过 JMX 导出的内容）无限增长。
+ */
+public class MethodMetrics {
+
+	private final String name;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder failures = new LongAdder();
+	// 按 Class 查找不需要拼接字符串，预分配的异常（LoginFailedException）反复抛出时也不分配对象
+	private final ConcurrentMap<Class<?>, LongAdder> failuresByType = new ConcurrentHashMap<>();
+
+	MethodMetrics(String name) {
+		this.name = name;
+	}
+
+	void recordSuccess(long nanos) {
+		latency.record(nanos);
+	}
+
+	void recordFailure(long nanos, Throwable failure) {
+		latency.record(nanos);
+		failures.increment();
+		LongAdder counter = failuresByType.get(failure.getClass());
+		if (counter == null) {
+			counter = failuresByType.computeIfAbsent(failure.getClass(), k -> new LongAdder());
+		}
+		counter.increment();
+	}
+
+	public MethodStats snapshot() {
+		Map<String, Long> reasons = new TreeMap<>();
+		failuresByType.forEach((type, counter) -> reasons.merge(type.getSimpleName(), counter.sum(), Long::sum));
+		return new MethodStats(name, latency.getCount(), failures.sum(), toMicros(latency.getMeanNanos()),
+				toMicros(latency.percentileNanos(0.50)), toMicros(latency.percentileNanos(0.99)),
+				toMicros(latency.percentileNanos(0.999)), reasons);
+	}
+
+	private static double toMicros(double nanos) {
+		return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,69 @@
+package com.company.metrics;
+
+import java.util.Map;
+
+/**
+ * MethodMetrics 的只读快照（延迟单位为微秒），同时作为 MXBean 的属性类型暴露给 JMX。
+ */
+public class MethodStats {
+
+	private final String name;
+	private final long calls;
+	private final long failures;
+	private final double meanMicros;
+	private final double p50Micros;
+	private final double p99Micros;
+	private final double p999Micros;
+	private final Map<String, Long> failuresByReason;
+
+	public MethodStats(String name, long calls, long failures, double meanMicros, double p50Micros, double p99Micros,
+			double p999Micros, Map<String, Long> failuresByReason) {
+		this.name = name;
+		this.calls = calls;
+		this.failures = failures;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.failuresByReason = failuresByReason;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	public double getP999Micros() {
+		return p999Micros;
+	}
+
+	public Map<String, Long> getFailuresByReason() {
+		return failuresByReason;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-40s calls=%d failures=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus%s", name, calls,
+				failures, meanMicros, p50Micros, p99Micros, p999Micros,
+				failuresByReason.isEmpty() ? "" : " " + failuresByReason);
+	}
+}
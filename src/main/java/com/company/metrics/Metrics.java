@@ -0,0 +1,72 @@
+package com.company.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 指标的登记处：Bean 生命周期耗时和各方法的 MethodMetrics。
+ */
+public class Metrics implements MetricsMXBean {
+
+	private final List<BeanLifecycle> lifecycles = new CopyOnWriteArrayList<>();
+	private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+	synchronized void addLifecycle(BeanLifecycle lifecycle) {
+		lifecycles.add(lifecycle);
+	}
+
+	/**
+	 * 把推迟执行的初始化耗时加到已经记录的 Bean 上；还没有记录时单独记一条。
+	 */
+	synchronized void addInit(String beanName, long initMicros) {
+		for (int i = 0; i < lifecycles.size(); i++) {
+			BeanLifecycle lifecycle = lifecycles.get(i);
+			if (lifecycle.getBeanName().equals(beanName)) {
+				lifecycles.set(i, new BeanLifecycle(beanName, lifecycle.getBeanClass(),
+						lifecycle.getConstructionMicros(), lifecycle.getInjectionMicros(),
+						lifecycle.getInitMicros() + initMicros));
+				return;
+			}
+		}
+		lifecycles.add(new BeanLifecycle(beanName, "", 0, 0, initMicros));
+	}
+
+	MethodMetrics method(String name) {
+		return methods.computeIfAbsent(name, MethodMetrics::new);
+	}
+
+	@Override
+	public List<BeanLifecycle> getBeanLifecycles() {
+		return new ArrayList<>(lifecycles);
+	}
+
+	@Override
+	public List<MethodStats> getMethodStats() {
+		List<MethodStats> stats = new ArrayList<>();
+		for (MethodMetrics metrics : methods.values()) {
+			stats.add(metrics.snapshot());
+		}
+		stats.sort(Comparator.comparing(MethodStats::getName));
+		return stats;
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("== bean lifecycle ==").append(System.lineSeparator());
+		List<BeanLifecycle> beans = getBeanLifecycles();
+		beans.sort(Comparator.comparingLong(BeanLifecycle::getTotalMicros).reversed());
+		for (BeanLifecycle bean : beans) {
+			sb.append(bean).append(System.lineSeparator());
+		}
+		sb.append("== method latency ==").append(System.lineSeparator());
+		for (MethodStats stats : getMethodStats()) {
+			sb.append(stats).append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+}
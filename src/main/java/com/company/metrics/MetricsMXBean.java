@@ -0,0 +1,15 @@
+package com.company.metrics;
+
+import java.util.List;
+
+/**
+ * 通过 JMX 暴露的指标，ObjectName 为 com.company:type=Metrics。
+ */
+public interface MetricsMXBean {
+
+	List<BeanLifecycle> getBeanLifecycles();
+
+	List<MethodStats> getMethodStats();
+
+	String dump();
+}
@@ -0,0 +1,106 @@
+package com.company.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * ResourceRegistry 中缓存的一份资源内容。
+ * <p>
+ * 内容是一个只读 ByteBuffer：文件资源是读入堆中的快照，classpath 资源是读入一次的 direct buffer，
+ * 多个使用方共享同一块内存；文件之后被改动也不会影响已经拿到的内容，只有 replace 才会换成新的版本。文件被修改后 ResourceRegistry 会原地替换内容（同一个 CachedResource 对象），
+ * 持有它的 Bean 不需要重新获取；内容不变时不会重新读取，也不会重新解码。
+ */
+public class CachedResource {
+
+	private final String description;
+	private volatile Content content;
+	private final List<Consumer<CachedResource>> reloadListeners = new CopyOnWriteArrayList<>();
+
+	CachedResource(String description, ByteBuffer bytes) {
+		this.description = description;
+		this.content = new Content(bytes, 1);
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * 每次重新加载加 1，可用来判断内容是否变化。
+	 */
+	public long getVersion() {
+		return content.version;
+	}
+
+	/**
+	 * 内容的只读视图，position 为 0。返回的是共享内存的一个 duplicate，不复制数据。
+	 */
+	public ByteBuffer getBytes() {
+		return content.bytes.duplicate();
+	}
+
+	public int size() {
+		return content.bytes.limit();
+	}
+
+	/**
+	 * 按 UTF-8 解码后的内容；每个版本只解码一次。
+	 */
+	public String asString() {
+		Content current = this.content;
+		String text = current.text;
+		if (text == null) {
+			text = StandardCharsets.UTF_8.decode(current.bytes.duplicate()).toString();
+			current.text = text;
+		}
+		return text;
+	}
+
+	/**
+	 * 把内容从共享的 buffer 写到 channel，不解码成 String，返回写出的字节数。
+	 * FileChannel、SocketChannel 可以直接从 buffer 写出；Channels.newChannel 包装的 OutputStream 仍会先分段复制到一个堆上的 byte[]。
+	 */
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer bytes = getBytes();
+		long written = 0;
+		while (bytes.hasRemaining()) {
+			written += channel.write(bytes);
+		}
+		return written;
+	}
+
+	/**
+	 * 注册一个回调，内容被重新加载后（在 ResourceRegistry 的监视线程上）调用。
+	 */
+	public void onReload(Consumer<CachedResource> listener) {
+		reloadListeners.add(listener);
+	}
+
+	void replace(ByteBuffer bytes) {
+		this.content = new Content(bytes, content.version + 1);
+		for (Consumer<CachedResource> listener : reloadListeners) {
+			try {
+				listener.accept(this);
+			} catch (RuntimeException e) {
+				System.err.println("In the CachedResource:reload listener failed for " + description + ": " + e);
+			}
+		}
+	}
+
+	private static final class Content {
+		final ByteBuffer bytes;
+		final long version;
+		// 懒解码的结果；多个线程同时解码得到的是相同的字符串，不需要加锁
+		volatile String text;
+
+		Content(ByteBuffer bytes, long version) {
+			this.bytes = bytes.asReadOnlyBuffer();
+			this.version = version;
+		}
+	}
+}
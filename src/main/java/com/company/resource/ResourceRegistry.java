@@ -0,0 +1,210 @@
+package com.company.resource;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 共享的资源缓存，用来替代每个 Bean 在 @PostConstruct 中各自把 Resource 读成 String 的做法。
+ * <ul>
+ * <li>classpath 资源：读一次，存成只读的 direct ByteBuffer；</li>
+ * <li>文件资源（file:）：读成堆上的 byte[] 快照，并通过 WatchService 监视所在目录，
+ *     文件被修改或替换后重新读取，原地更新对应的 CachedResource。</li>
+ * </ul>
+ * 文件资源不做内存映射：被监视的文件随时可能被编辑器截断或原地改写，映射区对应的页消失时访问会触发 SIGBUS 使进程崩溃，
+ * 而且内容会在版本号不变的情况下变掉。快照在读取前后比较大小和修改时间，读取期间文件被改动时放弃这次读取。
+ * 同一个资源只缓存一份，get 多次返回同一个 CachedResource。
+ */
+@Component
+public class ResourceRegistry {
+
+	private final ConcurrentMap<String, CachedResource> resources = new ConcurrentHashMap<>();
+	// 被监视的文件：绝对路径 -> 对应的缓存
+	private final ConcurrentMap<Path, CachedResource> watchedFiles = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Path, FileStamp> fileStamps = new ConcurrentHashMap<>();
+
+	private static final long SETTLE_MILLIS = 50;
+
+	private volatile WatchService watchService;
+	private Thread watcher;
+
+	public CachedResource get(Resource resource) {
+		try {
+			if (resource instanceof ClassPathResource) {
+				return resources.computeIfAbsent("classpath:" + ((ClassPathResource) resource).getPath(),
+						k -> load(resource, null));
+			}
+			if (resource.isFile()) {
+				// file:、FileSystemResource 等不同写法指向同一个文件时共用一份缓存
+				Path path = resource.getFile().toPath().toAbsolutePath().normalize();
+				return resources.computeIfAbsent("file:" + path, k -> load(resource, path));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to resolve " + resource.getDescription(), e);
+		}
+		return resources.computeIfAbsent(resource.getDescription(), k -> load(resource, null));
+	}
+
+	private CachedResource load(Resource resource, Path path) {
+		try {
+			if (path != null) {
+				FileStamp stamp = FileStamp.of(path);
+				CachedResource cached = new CachedResource(resource.getDescription(), read(path, stamp));
+				fileStamps.put(path, stamp);
+				watch(path, cached);
+				return cached;
+			}
+			return new CachedResource(resource.getDescription(), readFully(resource));
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to load " + resource.getDescription(), e);
+		}
+	}
+
+	/**
+	 * 读取整个文件；读完后文件的大小或修改时间与 stamp 不同（正在被写入）时抛出 IOException，由调用方稍后重试。
+	 */
+	private static ByteBuffer read(Path path, FileStamp stamp) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		if (bytes.length != stamp.size || !stamp.equals(FileStamp.of(path))) {
+			throw new IOException(path + " changed while it was being read");
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static ByteBuffer readFully(Resource resource) throws IOException {
+		try (InputStream in = resource.getInputStream()) {
+			byte[] chunk = new byte[8192];
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				if (buffer.remaining() < n) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + n));
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+				}
+				buffer.put(chunk, 0, n);
+			}
+			buffer.flip();
+			ByteBuffer direct = ByteBuffer.allocateDirect(buffer.remaining());
+			direct.put(buffer).flip();
+			return direct;
+		}
+	}
+
+	private synchronized void watch(Path path, CachedResource cached) throws IOException {
+		if (watchService == null) {
+			watchService = FileSystems.getDefault().newWatchService();
+			watcher = new Thread(this::watchLoop, "resource-watcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		watchedFiles.put(path, cached);
+		path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	private void watchLoop() {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+				collect(watchService.take(), changed);
+				// 一次保存往往是“截断 + 写入”多个事件，稍等片刻把随后的事件一起收集，避免读到写了一半的文件
+				Thread.sleep(SETTLE_MILLIS);
+				WatchKey key;
+				while ((key = watchService.poll()) != null) {
+					collect(key, changed);
+				}
+				changed.forEach(this::reload);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// 关闭
+		}
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// 事件丢失：把这个目录下所有被监视的文件都检查一遍
+				watchedFiles.keySet().stream().filter(p -> p.getParent().equals(dir)).forEach(changed::add);
+			} else {
+				changed.add(dir.resolve((Path) event.context()));
+			}
+		}
+		key.reset();
+	}
+
+	private void reload(Path path) {
+		CachedResource cached = watchedFiles.get(path);
+		if (cached == null) {
+			return;
+		}
+		try {
+			FileStamp stamp = FileStamp.of(path);
+			// 一次写入常常产生多个 MODIFY 事件，大小和修改时间都没变时跳过
+			if (stamp.equals(fileStamps.get(path))) {
+				return;
+			}
+			cached.replace(read(path, stamp));
+			fileStamps.put(path, stamp);
+			System.out.println("In the ResourceRegistry:Reloaded " + path + " (" + cached.size() + " bytes)");
+		} catch (IOException e) {
+			// 文件可能正在被替换，等下一个事件再试
+			System.err.println("In the ResourceRegistry:failed to reload " + path + ": " + e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	private static final class FileStamp {
+		final long size;
+		final long lastModified;
+
+		FileStamp(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		static FileStamp of(Path path) throws IOException {
+			return new FileStamp(Files.size(path), Files.getLastModifiedTime(path).toMillis());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FileStamp)) {
+				return false;
+			}
+			FileStamp other = (FileStamp) o;
+			return size == other.size && lastModified == other.lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+		}
+	}
+}
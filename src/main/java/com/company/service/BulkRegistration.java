@@ -0,0 +1,67 @@
+package com.company.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService.registerAll 的结果：注册成功的用户数，以及各类被跳过的请求数和导入速度。
+ * 只保存计数，不保存注册成功的用户，大批量导入时结果不随导入量增长。
+ */
+public class BulkRegistration {
+
+	private final int registered;
+	private final int invalid;
+	private final int duplicateInBatch;
+	private final int alreadyExists;
+	private final int failed;
+	private final long elapsedNanos;
+
+	BulkRegistration(int registered, int invalid, int duplicateInBatch, int alreadyExists, int failed,
+			long elapsedNanos) {
+		this.registered = registered;
+		this.invalid = invalid;
+		this.duplicateInBatch = duplicateInBatch;
+		this.alreadyExists = alreadyExists;
+		this.failed = failed;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/** 注册并持久化成功的用户数 */
+	public int getRegistered() {
+		return registered;
+	}
+
+	/** 格式不对或字段为空的请求数 */
+	public int getInvalid() {
+		return invalid;
+	}
+
+	/** 与同一批中更早的请求 email 重复而被去掉的请求数 */
+	public int getDuplicateInBatch() {
+		return duplicateInBatch;
+	}
+
+	/** email 已经注册过的请求数 */
+	public int getAlreadyExists() {
+		return alreadyExists;
+	}
+
+	/** 持久化失败的请求数 */
+	public int getFailed() {
+		return failed;
+	}
+
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+	}
+
+	public double getUsersPerSecond() {
+		return elapsedNanos == 0 ? 0 : registered * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("registered %d users in %d ms (%.0f users/s), invalid %d, duplicate in batch %d, "
+						+ "already exists %d, failed %d", registered, getElapsedMillis(), getUsersPerSecond(),
+				invalid, duplicateInBatch, alreadyExists, failed);
+	}
+}
@@ -0,0 +1,539 @@
+package com.company.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 面向千万级用户的紧凑列式存储。
+ * <p>
+ * 每个用户占一行：id 存在 long[] 列中，email / password / name 以 UTF-8 字节写入共享的大块字节区（arena），
+ * 行里只记一个 long 引用（高 48 位是 arena 偏移，低 16 位是字节长度）。按 id 和按 email 的索引都是开放寻址的
+ * 基本类型数组，整个存储不为每个用户创建任何对象；User 只在 findById / findByEmail / findAll 返回时临时构造，
+ * 因此修改返回的 User 不会影响存储的数据。arena 可以放在堆外（direct ByteBuffer）。
+ * <p>
+ * 写操作串行化在 StampedLock 的写锁下；读操作先走乐观读，数据在读的过程中被改动（扩容、改密码）时退回到读锁重试。
+ * 已写入的 arena 字节不会再被修改（改密码时写入新字节、只替换行里的引用），所以校验通过后可以在锁外解码字符串。
+ */
+public class CompactUserRepository implements UserRepository {
+
+	private static final int ARENA_CHUNK_SHIFT = 22; // 每块 4 MB
+	private static final int ARENA_CHUNK_BYTES = 1 << ARENA_CHUNK_SHIFT;
+	private static final int MAX_FIELD_BYTES = 0xffff;
+	private static final long REMOVED = -1L;
+	private static final int EMPTY = 0;
+
+	private final boolean offHeap;
+	private final StampedLock lock = new StampedLock();
+
+	// 列：第 row 行的数据
+	private long[] ids;
+	private long[] emailRefs;
+	private long[] passwordRefs;
+	private long[] nameRefs;
+	private int[] emailHashes;
+	private int rows;
+	private int live;
+
+	// 索引：槽位中存 row + 1，0 表示空槽
+	private int[] idIndex;
+	private int[] emailIndex;
+
+	private ByteBuffer[] arena = new ByteBuffer[0];
+	private long arenaEnd;
+
+	private long maxId;
+
+	public CompactUserRepository(int initialCapacity, boolean offHeap) {
+		this.offHeap = offHeap;
+		int capacity = Math.max(16, initialCapacity);
+		this.ids = new long[capacity];
+		this.emailRefs = new long[capacity];
+		this.passwordRefs = new long[capacity];
+		this.nameRefs = new long[capacity];
+		this.emailHashes = new int[capacity];
+		int slots = tableSizeFor(capacity * 2);
+		this.idIndex = new int[slots];
+		this.emailIndex = new int[slots];
+	}
+
+	@Override
+	public User findById(long id) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				User user = readById(id, stamp);
+				if (user != null || lock.validate(stamp)) {
+					return user;
+				}
+			} catch (RuntimeException e) {
+				// 乐观读期间数组被替换，读到的是不一致的状态，下面加读锁重试
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readById(id, 0);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		if (email == null) {
+			return null;
+		}
+		byte[] folded = UserRepository.foldEmail(email).getBytes(StandardCharsets.UTF_8);
+		int hash = hash(folded);
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				User user = readByEmail(folded, hash, stamp);
+				if (user != null || lock.validate(stamp)) {
+					return user;
+				}
+			} catch (RuntimeException e) {
+				// 同 findById
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return readByEmail(folded, hash, 0);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public User create(String email, String password, String name) {
+		byte[] folded = UserRepository.foldEmail(email).getBytes(StandardCharsets.UTF_8);
+		long stamp = lock.writeLock();
+		try {
+			int hash = hash(folded);
+			if (findEmailSlot(folded, hash) >= 0) {
+				return null;
+			}
+			long id = maxId + 1;
+			insert(id, email, password, name, hash);
+			return new User(id, email, password, name);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean add(User user) {
+		byte[] folded = UserRepository.foldEmail(user.getEmail()).getBytes(StandardCharsets.UTF_8);
+		long stamp = lock.writeLock();
+		try {
+			int hash = hash(folded);
+			if (findIdRow(user.getId()) >= 0 || findEmailSlot(folded, hash) >= 0) {
+				return false;
+			}
+			insert(user.getId(), user.getEmail(), user.getPassword(), user.getName(), hash);
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * 行不会真正删除：只从两个索引中摘掉并打上删除标记，它占用的 arena 字节不回收。
+	 * 索引用 backward-shift 删除，不留墓碑也不重建，删除的代价只和探测链长度有关。
+	 */
+	@Override
+	public void remove(User user) {
+		long stamp = lock.writeLock();
+		try {
+			removeRow(user);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * 整批在一次写锁内删除。
+	 */
+	@Override
+	public void removeAll(Collection<User> users) {
+		long stamp = lock.writeLock();
+		try {
+			for (User user : users) {
+				removeRow(user);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * 旧密文占用的 arena 字节不回收。
+	 */
+	@Override
+	public User updatePassword(User user, String password) {
+		long stamp = lock.writeLock();
+		try {
+			int row = findIdRow(user.getId());
+			if (row < 0) {
+				return null;
+			}
+			String email = decode(emailRefs[row]);
+			if (!UserRepository.foldEmail(user.getEmail()).equals(UserRepository.foldEmail(email))
+					|| !decode(passwordRefs[row]).equals(user.getPassword())) {
+				return null;
+			}
+			passwordRefs[row] = append(password);
+			return new User(ids[row], email, password, decode(nameRefs[row]));
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * 按行顺序遍历，每次 next() 才构造 User；遍历的是调用时已存在的行。
+	 */
+	@Override
+	public Collection<User> findAll() {
+		final int end;
+		long stamp = lock.readLock();
+		try {
+			end = rows;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return new AbstractCollection<User>() {
+			@Override
+			public Iterator<User> iterator() {
+				return new Iterator<User>() {
+					private int row = -1;
+					private User next = advance();
+
+					private User advance() {
+						while (++row < end) {
+							User user = readRow(row);
+							if (user != null) {
+								return user;
+							}
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public User next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+						User user = next;
+						next = advance();
+						return user;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return CompactUserRepository.this.size();
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return live;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * 列、索引和 arena 实际占用的字节数（arena 按已分配的块计算）。
+	 */
+	public long footprintBytes() {
+		long stamp = lock.readLock();
+		try {
+			long columns = (long) ids.length * (8 + 8 + 8 + 8 + 4);
+			long indexes = (long) (idIndex.length + emailIndex.length) * 4;
+			return columns + indexes + (long) arena.length * ARENA_CHUNK_BYTES;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private User readRow(int row) {
+		long stamp = lock.readLock();
+		long id;
+		long emailRef;
+		long passwordRef;
+		long nameRef;
+		try {
+			emailRef = emailRefs[row];
+			if (emailRef == REMOVED) {
+				return null;
+			}
+			id = ids[row];
+			passwordRef = passwordRefs[row];
+			nameRef = nameRefs[row];
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return new User(id, decode(emailRef), decode(passwordRef), decode(nameRef));
+	}
+
+	/**
+	 * stamp 为 0 表示已持有读锁；否则在乐观读下执行，返回前校验 stamp，校验失败返回 null。
+	 */
+	private User readById(long id, long stamp) {
+		int row = findIdRow(id);
+		if (row < 0) {
+			return null;
+		}
+		return materialize(row, stamp);
+	}
+
+	private User readByEmail(byte[] folded, int hash, long stamp) {
+		int slot = findEmailSlot(folded, hash);
+		if (slot < 0) {
+			return null;
+		}
+		return materialize(emailIndex[slot] - 1, stamp);
+	}
+
+	private User materialize(int row, long stamp) {
+		long id = ids[row];
+		long emailRef = emailRefs[row];
+		long passwordRef = passwordRefs[row];
+		long nameRef = nameRefs[row];
+		ByteBuffer[] chunks = arena;
+		if (stamp != 0 && !lock.validate(stamp)) {
+			return null;
+		}
+		return new User(id, decode(chunks, emailRef), decode(chunks, passwordRef), decode(chunks, nameRef));
+	}
+
+	private int findIdRow(long id) {
+		int[] table = idIndex;
+		int mask = table.length - 1;
+		for (int slot = mix(Long.hashCode(id)) & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == EMPTY) {
+				return -1;
+			}
+			if (ids[entry - 1] == id) {
+				return entry - 1;
+			}
+		}
+	}
+
+	/**
+	 * 返回 email 所在的索引槽位，不存在时返回 -1。
+	 */
+	private int findEmailSlot(byte[] folded, int hash) {
+		int[] table = emailIndex;
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == EMPTY) {
+				return -1;
+			}
+			int row = entry - 1;
+			if (emailHashes[row] == hash && foldedEquals(emailRefs[row], folded)) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean foldedEquals(long ref, byte[] folded) {
+		// email 大多是 ASCII，先按字节逐个比较（只折叠 ASCII 大写字母），遇到非 ASCII 再解码比较
+		int length = (int) (ref & MAX_FIELD_BYTES);
+		ByteBuffer chunk = arena[(int) (ref >>> 16 >>> ARENA_CHUNK_SHIFT)];
+		int position = (int) ((ref >>> 16) & (ARENA_CHUNK_BYTES - 1));
+		if (length == folded.length) {
+			boolean ascii = true;
+			for (int i = 0; i < length; i++) {
+				byte b = chunk.get(position + i);
+				if (b < 0) {
+					ascii = false;
+					break;
+				}
+				if (b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
+				}
+				if (b != folded[i]) {
+					return false;
+				}
+			}
+			if (ascii) {
+				return true;
+			}
+		}
+		return Arrays.equals(UserRepository.foldEmail(decode(ref)).getBytes(StandardCharsets.UTF_8), folded);
+	}
+
+	private void insert(long id, String email, String password, String name, int hash) {
+		if (rows == ids.length) {
+			grow();
+		}
+		int row = rows;
+		ids[row] = id;
+		emailRefs[row] = append(email);
+		passwordRefs[row] = append(password);
+		nameRefs[row] = append(name);
+		emailHashes[row] = hash;
+		rows++;
+		live++;
+		if ((long) rows * 2 > idIndex.length) {
+			rebuildIndexes(idIndex.length * 2);
+		} else {
+			index(row);
+		}
+		maxId = Math.max(maxId, id);
+	}
+
+	private void grow() {
+		int capacity = ids.length + (ids.length >> 1);
+		ids = Arrays.copyOf(ids, capacity);
+		emailRefs = Arrays.copyOf(emailRefs, capacity);
+		passwordRefs = Arrays.copyOf(passwordRefs, capacity);
+		nameRefs = Arrays.copyOf(nameRefs, capacity);
+		emailHashes = Arrays.copyOf(emailHashes, capacity);
+	}
+
+	private void rebuildIndexes(int slots) {
+		idIndex = new int[slots];
+		emailIndex = new int[slots];
+		for (int row = 0; row < rows; row++) {
+			if (emailRefs[row] != REMOVED) {
+				index(row);
+			}
+		}
+	}
+
+	private void index(int row) {
+		int mask = idIndex.length - 1;
+		int slot = mix(Long.hashCode(ids[row])) & mask;
+		while (idIndex[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		idIndex[slot] = row + 1;
+		slot = emailHashes[row] & mask;
+		while (emailIndex[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		emailIndex[slot] = row + 1;
+	}
+
+	// 调用方持有写锁
+	private void removeRow(User user) {
+		int row = findIdRow(user.getId());
+		if (row < 0 || !UserRepository.foldEmail(user.getEmail())
+				.equals(UserRepository.foldEmail(decode(emailRefs[row])))) {
+			return;
+		}
+		unindex(row);
+		emailRefs[row] = REMOVED;
+		live--;
+	}
+
+	private void unindex(int row) {
+		unlink(idIndex, mix(Long.hashCode(ids[row])), row, false);
+		unlink(emailIndex, emailHashes[row], row, true);
+	}
+
+	/**
+	 * 从 home 开始找到 row 所在的槽位并删除（backward-shift）：把后面同一段探测链上的条目往前挪进空位，
+	 * 只挪那些挪过去之后仍能从自己的 home 探测到的条目，因此查找遇到空槽就停止的规则保持成立。
+	 */
+	private void unlink(int[] table, int home, int row, boolean byEmail) {
+		int mask = table.length - 1;
+		int hole = home & mask;
+		while (table[hole] != row + 1) {
+			hole = (hole + 1) & mask;
+		}
+		for (int slot = (hole + 1) & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == EMPTY) {
+				break;
+			}
+			int entryHome = (byEmail ? emailHashes[entry - 1] : mix(Long.hashCode(ids[entry - 1]))) & mask;
+			// entryHome 不在 (hole, slot] 之间，说明条目是从 hole 或更前面探测过来的
+			if (((slot - entryHome) & mask) >= ((slot - hole) & mask)) {
+				table[hole] = entry;
+				hole = slot;
+			}
+		}
+		table[hole] = EMPTY;
+	}
+
+	private long append(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_FIELD_BYTES) {
+			throw new IllegalArgumentException("user field too long: " + bytes.length + " bytes");
+		}
+		int position = (int) (arenaEnd & (ARENA_CHUNK_BYTES - 1));
+		if (arena.length == 0 || position + bytes.length > ARENA_CHUNK_BYTES) {
+			// 字段不跨块：当前块放不下就开一个新块
+			ByteBuffer[] chunks = Arrays.copyOf(arena, arena.length + 1);
+			chunks[arena.length] = offHeap ? ByteBuffer.allocateDirect(ARENA_CHUNK_BYTES)
+					: ByteBuffer.allocate(ARENA_CHUNK_BYTES);
+			arena = chunks;
+			arenaEnd = (long) (arena.length - 1) << ARENA_CHUNK_SHIFT;
+			position = 0;
+		}
+		ByteBuffer chunk = arena[arena.length - 1];
+		for (int i = 0; i < bytes.length; i++) {
+			chunk.put(position + i, bytes[i]);
+		}
+		long ref = (arenaEnd << 16) | bytes.length;
+		arenaEnd += bytes.length;
+		return ref;
+	}
+
+	private String decode(long ref) {
+		return decode(arena, ref);
+	}
+
+	private static String decode(ByteBuffer[] chunks, long ref) {
+		int length = (int) (ref & MAX_FIELD_BYTES);
+		long offset = ref >>> 16;
+		ByteBuffer chunk = chunks[(int) (offset >>> ARENA_CHUNK_SHIFT)];
+		int position = (int) (offset & (ARENA_CHUNK_BYTES - 1));
+		byte[] bytes = new byte[length];
+		if (chunk.hasArray()) {
+			System.arraycopy(chunk.array(), chunk.arrayOffset() + position, bytes, 0, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				bytes[i] = chunk.get(position + i);
+			}
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int hash(byte[] folded) {
+		return mix(Arrays.hashCode(folded));
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSizeFor(int n) {
+		int size = 1;
+		while (size < n) {
+			size <<= 1;
+		}
+		return size;
+	}
+}
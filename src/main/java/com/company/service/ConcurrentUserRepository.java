@@ -0,0 +1,113 @@
+package com.company.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 线程安全的用户存储：按 id 和按（忽略大小写的）email 各建一个哈希索引，查找都是 O(1)。
+ * email 的唯一性由 byEmail.putIfAbsent 原子保证，id 由 AtomicLong 无锁分配。
+ */
+public class ConcurrentUserRepository implements UserRepository {
+
+	private final ConcurrentMap<Long, User> byId = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, User> byEmail = new ConcurrentHashMap<>();
+	private final AtomicLong idSequence = new AtomicLong();
+
+	@Override
+	public User findById(long id) {
+		return byId.get(id);
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		return email == null ? null : byEmail.get(UserRepository.foldEmail(email));
+	}
+
+	/**
+	 * 注册失败时已分配的 id 不回收，id 只保证唯一、递增，不保证连续。
+	 * 并发的 add 可能在推进 id 序列之前占用了刚分配的 id，这时撤销 email 索引，换一个 id 重试。
+	 */
+	@Override
+	public User create(String email, String password, String name) {
+		String folded = UserRepository.foldEmail(email);
+		while (true) {
+			User user = new User(idSequence.incrementAndGet(), email, password, name);
+			if (byEmail.putIfAbsent(folded, user) != null) {
+				return null;
+			}
+			if (byId.putIfAbsent(user.getId(), user) == null) {
+				return user;
+			}
+			byEmail.remove(folded, user);
+		}
+	}
+
+	/**
+	 * 同时把 id 序列推进到不小于该 id。
+	 */
+	@Override
+	public boolean add(User user) {
+		if (byId.putIfAbsent(user.getId(), user) != null) {
+			return false;
+		}
+		if (byEmail.putIfAbsent(UserRepository.foldEmail(user.getEmail()), user) != null) {
+			byId.remove(user.getId(), user);
+			return false;
+		}
+		advanceSequence(user.getId());
+		return true;
+	}
+
+	/**
+	 * 删除用户，只有当索引中仍是同一个对象时才删除。
+	 */
+	@Override
+	public void remove(User user) {
+		byEmail.remove(UserRepository.foldEmail(user.getEmail()), user);
+		byId.remove(user.getId(), user);
+	}
+
+	/**
+	 * 先换 email 索引再换 id 索引，两步都按对象 CAS：与 remove / 另一次 updatePassword 并发时只有一方生效。
+	 */
+	@Override
+	public User updatePassword(User user, String password) {
+		User current = byId.get(user.getId());
+		if (current == null || !current.getPassword().equals(user.getPassword())
+				|| !UserRepository.foldEmail(current.getEmail()).equals(UserRepository.foldEmail(user.getEmail()))) {
+			return null;
+		}
+		User updated = new User(current.getId(), current.getEmail(), password, current.getName());
+		if (!byEmail.replace(UserRepository.foldEmail(current.getEmail()), current, updated)) {
+			return null;
+		}
+		if (!byId.replace(current.getId(), current, updated)) {
+			// 两步之间 current 被 remove 了：email 索引中也不能留下它
+			byEmail.remove(UserRepository.foldEmail(current.getEmail()), updated);
+			return null;
+		}
+		return updated;
+	}
+
+	@Override
+	public Collection<User> findAll() {
+		return Collections.unmodifiableCollection(byId.values());
+	}
+
+	@Override
+	public int size() {
+		return byId.size();
+	}
+
+	private void advanceSequence(long id) {
+		long current;
+		while ((current = idSequence.get()) < id) {
+			if (idSequence.compareAndSet(current, id)) {
+				return;
+			}
+		}
+	}
+}
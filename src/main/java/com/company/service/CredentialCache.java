@@ -0,0 +1,78 @@
+package com.company.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 最近校验成功的登录凭据缓存，热点账号重复登录时不必每次都付一遍慢哈希的代价。
+ * <p>
+ * 缓存的 key 是 HMAC-SHA256(进程内随机密钥, email + 密码 + 已保存的密文)，不保存明文密码，
+ * 密钥不落盘，重启后缓存自然失效；密文变化（改密码）后旧 key 也不会再命中。
+ * 容量和过期时间用 Guava 的 CacheBuilder 控制，只缓存成功的校验。
+ */
+@Component
+public class CredentialCache {
+
+	private static final String ALGORITHM = "HmacSHA256";
+
+	@Value("${app.password.cache-size:10000}")
+	long maximumSize;
+
+	@Value("${app.password.cache-ttl-seconds:300}")
+	long ttlSeconds;
+
+	private Cache<ByteBuffer, Boolean> verified;
+	private ThreadLocal<Mac> macs;
+
+	@PostConstruct
+	public void init() {
+		// ByteBuffer 的 equals / hashCode 按内容比较，可以直接作为摘要的 key
+		this.verified = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.build();
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		SecretKeySpec secret = new SecretKeySpec(key, ALGORITHM);
+		this.macs = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(secret);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(ALGORITHM + " is not available", e);
+			}
+		});
+	}
+
+	public boolean isVerified(String email, String password, String encoded) {
+		return maximumSize > 0 && verified.getIfPresent(digest(email, password, encoded)) != null;
+	}
+
+	public void markVerified(String email, String password, String encoded) {
+		if (maximumSize > 0) {
+			verified.put(digest(email, password, encoded), Boolean.TRUE);
+		}
+	}
+
+	private ByteBuffer digest(String email, String password, String encoded) {
+		Mac mac = macs.get();
+		mac.update(UserRepository.foldEmail(email).getBytes(StandardCharsets.UTF_8));
+		mac.update((byte) 0);
+		mac.update(password.getBytes(StandardCharsets.UTF_8));
+		mac.update((byte) 0);
+		mac.update(encoded.getBytes(StandardCharsets.UTF_8));
+		return ByteBuffer.wrap(mac.doFinal());
+	}
+}
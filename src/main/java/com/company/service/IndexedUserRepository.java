@@ -0,0 +1,214 @@
+package com.company.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * 给任意 UserRepository 加上按（转小写后的）email 和 name 排序的二级索引，支持前缀查询和按 email 游标分页。
+ * <p>
+ * 索引用 ConcurrentSkipListMap / ConcurrentSkipListSet，只保存排序 key 和 id，查询结果按 id 回到底层存储取 User，
+ * 所以 compact 存储下也不会常驻 User 对象。查询返回的 Stream 直接遍历跳表的视图，不复制数据；
+ * 跳表迭代器是弱一致的：遍历期间一直存在的用户恰好出现一次，期间新注册或删除的用户可能出现也可能不出现。
+ * 按 email 游标分页时下一页从上一页最后一个 email 之后开始，因此并发注册不会导致重复或遗漏已有用户。
+ * <p>
+ * 写操作先写底层存储再更新索引，两者之间有一个很短的窗口：刚注册的用户已经能按 id / email 查到，但还没出现在排序查询中。
+ */
+public class IndexedUserRepository implements UserRepository, SortedUserIndex, Closeable {
+
+	private final UserRepository delegate;
+	// foldEmail(email) -> id
+	private final ConcurrentSkipListMap<String, Long> byEmail = new ConcurrentSkipListMap<>();
+	// (foldName(name), id)，name 可以重复，用 id 区分
+	private final ConcurrentSkipListSet<NameKey> byName = new ConcurrentSkipListSet<>();
+
+	public IndexedUserRepository(UserRepository delegate) {
+		this.delegate = delegate;
+		for (User user : delegate.findAll()) {
+			index(user);
+		}
+	}
+
+	@Override
+	public User findById(long id) {
+		return delegate.findById(id);
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		return delegate.findByEmail(email);
+	}
+
+	@Override
+	public User[] findAllById(long[] ids) {
+		return delegate.findAllById(ids);
+	}
+
+	@Override
+	public User create(String email, String password, String name) {
+		User user = delegate.create(email, password, name);
+		if (user != null) {
+			index(user);
+		}
+		return user;
+	}
+
+	@Override
+	public boolean add(User user) {
+		if (!delegate.add(user)) {
+			return false;
+		}
+		index(user);
+		return true;
+	}
+
+	@Override
+	public void remove(User user) {
+		delegate.remove(user);
+		unindex(user);
+	}
+
+	@Override
+	public void removeAll(Collection<User> users) {
+		delegate.removeAll(users);
+		for (User user : users) {
+			unindex(user);
+		}
+	}
+
+	/**
+	 * email 和 name 不变，排序索引不用更新。
+	 */
+	@Override
+	public User updatePassword(User user, String password) {
+		return delegate.updatePassword(user, password);
+	}
+
+	@Override
+	public Collection<User> findAll() {
+		return delegate.findAll();
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	/**
+	 * 底层存储需要关闭时（例如分片的 socket 连接）一并关闭；作为 @Bean 时由容器在关闭时调用。
+	 */
+	@Override
+	public void close() throws IOException {
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+	}
+
+	@Override
+	public Stream<User> findByEmailPrefix(String prefix, int limit) {
+		String from = UserRepository.foldEmail(prefix);
+		String to = prefixEnd(from);
+		NavigableMap<String, Long> range = to == null ? byEmail.tailMap(from, true) : byEmail.subMap(from, true, to, false);
+		return resolve(range.values().stream(), limit);
+	}
+
+	@Override
+	public Stream<User> findByNamePrefix(String prefix, int limit) {
+		String from = foldName(prefix);
+		String to = prefixEnd(from);
+		NavigableSet<NameKey> range = to == null ? byName.tailSet(new NameKey(from, Long.MIN_VALUE), true)
+				: byName.subSet(new NameKey(from, Long.MIN_VALUE), true, new NameKey(to, Long.MIN_VALUE), false);
+		return resolve(range.stream().map(key -> key.id), limit);
+	}
+
+	@Override
+	public Stream<User> streamAll(String afterCursor, int limit) {
+		NavigableMap<String, Long> range = afterCursor == null ? byEmail
+				: byEmail.tailMap(UserRepository.foldEmail(afterCursor), false);
+		return resolve(range.values().stream(), limit);
+	}
+
+	private void index(User user) {
+		byEmail.put(UserRepository.foldEmail(user.getEmail()), user.getId());
+		byName.add(new NameKey(foldName(user.getName()), user.getId()));
+	}
+
+	private void unindex(User user) {
+		// 只删除指向这个 id 的条目：同一个 email 可能已经被新用户重新注册
+		byEmail.remove(UserRepository.foldEmail(user.getEmail()), user.getId());
+		byName.remove(new NameKey(foldName(user.getName()), user.getId()));
+		// 删除的是旧对象（底层存储没有删掉），或者这个 id 在删除后又被加回：按底层存储现在的用户补回索引
+		User current = delegate.findById(user.getId());
+		if (current != null) {
+			index(current);
+		}
+	}
+
+	/**
+	 * 按 id 取回用户，跳过索引更新窗口内已经被删除的用户。
+	 */
+	private Stream<User> resolve(Stream<Long> ids, int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative: " + limit);
+		}
+		return ids.map(delegate::findById).filter(Objects::nonNull).limit(limit);
+	}
+
+	private static String foldName(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * 大于所有以 prefix 开头的字符串的最小字符串（末位字符加一）；prefix 为空或全是 Character.MAX_VALUE 时返回 null，表示没有上界。
+	 */
+	private static String prefixEnd(String prefix) {
+		int end = prefix.length();
+		while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+		if (end == 0) {
+			return null;
+		}
+		return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+	}
+
+	private static final class NameKey implements Comparable<NameKey> {
+		final String name;
+		final long id;
+
+		NameKey(String name, long id) {
+			this.name = name;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(NameKey other) {
+			int c = name.compareTo(other.name);
+			return c != 0 ? c : Long.compare(id, other.id);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof NameKey)) {
+				return false;
+			}
+			NameKey other = (NameKey) o;
+			return id == other.id && name.equals(other.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + Long.hashCode(id);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.company.service;
+
+/**
+ * 登录失败。失败的登录在撞库攻击下非常频繁，所以只用两个预先创建好的实例，不收集栈（fillInStackTrace 的开销），
+ * 也不在每次失败时分配新对象。
+ */
+public class LoginFailedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 用户不存在或密码错误。
+	 */
+	public static final LoginFailedException FAILED = new LoginFailedException("login failed.");
+
+	/**
+	 * 失败次数超过限制，请求在查用户和校验密码之前就被拒绝。
+	 */
+	public static final LoginFailedException THROTTLED = new LoginFailedException("login throttled.");
+
+	private LoginFailedException(String message) {
+		super(message, null, false, false);
+	}
+}
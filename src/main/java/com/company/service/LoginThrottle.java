@@ -0,0 +1,90 @@
+package com.company.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登录限流：按 email 和按来源（客户端地址等）分别统计滑动窗口内的失败次数，超过限制后在查用户、校验密码之前直接拒绝。
+ * <p>
+ * 计数放在 SlidingWindowCounters 中：内存在启动时一次分配好，更新只有 CAS，不加锁、不分配对象，
+ * 撞库攻击时大量不同的 email / 来源只会互相淘汰条目，不会让内存增长。
+ * 登录成功后清除该 email 的失败次数；来源的失败次数不清除，防止攻击者夹杂一个正确的账号来重置计数。
+ */
+@Component
+public class LoginThrottle {
+
+	@Value("${app.login.throttle.enabled:true}")
+	boolean enabled;
+
+	@Value("${app.login.throttle.window-seconds:60}")
+	long windowSeconds;
+
+	// 同一个 email 在窗口内允许的失败次数
+	@Value("${app.login.throttle.max-failures-per-email:5}")
+	int maxFailuresPerEmail;
+
+	// 同一个来源在窗口内允许的失败次数
+	@Value("${app.login.throttle.max-failures-per-source:100}")
+	int maxFailuresPerSource;
+
+	// 每张表最多同时跟踪的 email / 来源数
+	@Value("${app.login.throttle.capacity:65536}")
+	int capacity;
+
+	private SlidingWindowCounters emailFailures;
+	private SlidingWindowCounters sourceFailures;
+	private final LongAdder rejected = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		long windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+		this.emailFailures = new SlidingWindowCounters(capacity, windowMillis);
+		this.sourceFailures = new SlidingWindowCounters(capacity, windowMillis);
+	}
+
+	/**
+	 * 该 email 或来源的失败次数已经达到限制时返回 true，并计入拒绝次数。source 可以为 null。
+	 */
+	public boolean isThrottled(String email, String source) {
+		if (!enabled) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if ((email != null && emailFailures.estimate(UserRepository.foldEmail(email), now) >= maxFailuresPerEmail)
+				|| (source != null && sourceFailures.estimate(source, now) >= maxFailuresPerSource)) {
+			rejected.increment();
+			return true;
+		}
+		return false;
+	}
+
+	public void onFailure(String email, String source) {
+		if (!enabled) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (email != null) {
+			emailFailures.increment(UserRepository.foldEmail(email), now);
+		}
+		if (source != null) {
+			sourceFailures.increment(source, now);
+		}
+	}
+
+	public void onSuccess(String email) {
+		if (enabled) {
+			emailFailures.reset(UserRepository.foldEmail(email));
+		}
+	}
+
+	/**
+	 * 启动以来被限流拒绝的登录次数。
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+}
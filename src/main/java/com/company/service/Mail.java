@@ -0,0 +1,34 @@
+package com.company.service;
+
+/**
+ * 一封待发送的邮件。只记录类型、收件用户和触发时间，真正的格式化推迟到投递时再做，
+ * 这样异步模式下调用方线程（login / register）不用付格式化的开销。
+ */
+public class Mail {
+
+	public enum Kind {
+		LOGIN, REGISTRATION
+	}
+
+	private final Kind kind;
+	private final User user;
+	private final long timestamp;
+
+	public Mail(Kind kind, User user, long timestamp) {
+		this.kind = kind;
+		this.user = user;
+		this.timestamp = timestamp;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public User getUser() {
+		return user;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
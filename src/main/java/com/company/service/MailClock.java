@@ -0,0 +1,103 @@
+package com.company.service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 按 zoneId 输出 ISO_ZONED_DATE_TIME 格式时间的时钟，结果与
+ * {@code ZonedDateTime.format(DateTimeFormatter.ISO_ZONED_DATE_TIME)}（毫秒精度）一致。
+ * <p>
+ * 秒以上的部分（"2020-01-01T08:00:00"）和时区部分（"+08:00[Asia/Shanghai]"）每秒最多格式化一次并缓存，
+ * 同一秒内只需要追加毫秒，因此 appendTo 在缓存命中时不分配任何对象。
+ */
+public class MailClock {
+
+	private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss");
+
+	private final ZoneId zoneId;
+	private volatile Tick tick = new Tick(Long.MIN_VALUE, "", "", "");
+
+	public MailClock(ZoneId zoneId) {
+		this.zoneId = zoneId;
+	}
+
+	public ZoneId getZoneId() {
+		return zoneId;
+	}
+
+	public String currentTime() {
+		return format(System.currentTimeMillis());
+	}
+
+	/**
+	 * 同一毫秒内重复调用返回同一个 String 实例。
+	 */
+	public String format(long epochMillis) {
+		Tick t = tickFor(epochMillis);
+		if (t.millisFormatted == epochMillis) {
+			return t.formatted;
+		}
+		StringBuilder sb = new StringBuilder(40);
+		appendTo(sb, epochMillis);
+		String formatted = sb.toString();
+		this.tick = new Tick(t.epochSecond, t.dateTime, t.zone, formatted, epochMillis);
+		return formatted;
+	}
+
+	public void appendTo(StringBuilder sb, long epochMillis) {
+		Tick t = tickFor(epochMillis);
+		sb.append(t.dateTime);
+		int millis = (int) Math.floorMod(epochMillis, 1000L);
+		if (millis != 0) {
+			// 与 ISO_LOCAL_TIME 一致：小数部分去掉末尾的 0
+			sb.append('.').append((char) ('0' + millis / 100));
+			if (millis % 100 != 0) {
+				sb.append((char) ('0' + millis / 10 % 10));
+				if (millis % 10 != 0) {
+					sb.append((char) ('0' + millis % 10));
+				}
+			}
+		}
+		sb.append(t.zone);
+	}
+
+	private Tick tickFor(long epochMillis) {
+		long epochSecond = Math.floorDiv(epochMillis, 1000L);
+		Tick t = this.tick;
+		if (t.epochSecond != epochSecond) {
+			ZonedDateTime time = Instant.ofEpochSecond(epochSecond).atZone(zoneId);
+			LocalDateTime local = time.toLocalDateTime();
+			String zone = time.getOffset().getId();
+			if (!(zoneId instanceof ZoneOffset)) {
+				zone = zone + '[' + zoneId.getId() + ']';
+			}
+			t = new Tick(epochSecond, SECONDS.format(local), zone, "");
+			this.tick = t;
+		}
+		return t;
+	}
+
+	private static final class Tick {
+		final long epochSecond;
+		final String dateTime;
+		final String zone;
+		final String formatted;
+		final long millisFormatted;
+
+		Tick(long epochSecond, String dateTime, String zone, String formatted) {
+			this(epochSecond, dateTime, zone, formatted, Long.MIN_VALUE);
+		}
+
+		Tick(long epochSecond, String dateTime, String zone, String formatted, long millisFormatted) {
+			this.epochSecond = epochSecond;
+			this.dateTime = dateTime;
+			this.zone = zone;
+			this.formatted = formatted;
+			this.millisFormatted = millisFormatted;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.company.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 异步邮件投递：有界队列 + 若干 worker 线程，worker 每次最多取 batchSize 封邮件批量交给 sink 投递。
+ * 队列满时的处理方式由 OverflowPolicy 决定。
+ * <p>
+ * submit 与 shutdown 之间用 state 协调：submit 先登记为正在入队（CAS），shutdown 置上 SHUTDOWN 位后等所有登记的 submit 退出，
+ * 之后才让 worker 收尾并做最后一次 drainTo，因此不会有邮件在最后一次 drainTo 之后入队。
+ * 关闭后的 submit，以及 BLOCK 策略下因关闭而被唤醒的 submit，都不再入队，改为在调用方线程上直接投递。
+ */
+public class MailDispatcher {
+
+	public enum OverflowPolicy {
+		/** 阻塞调用方直到队列有空位 */
+		BLOCK,
+		/** 直接丢弃这封邮件并计数 */
+		DROP,
+		/** 在调用方线程上同步投递 */
+		CALLER_RUNS
+	}
+
+	private static final long POLL_MILLIS = 100;
+
+	private final BlockingQueue<Mail> queue;
+	private final OverflowPolicy overflowPolicy;
+	private final int batchSize;
+	private final Consumer<List<Mail>> sink;
+	private final List<Thread> workers = new ArrayList<>();
+	private final AtomicLong dropped = new AtomicLong();
+
+	// 最高位是 SHUTDOWN 标志，低位是正在入队的 submit 数
+	private static final int SHUTDOWN = 1 << 31;
+	private final AtomicInteger state = new AtomicInteger();
+
+	// worker 是否继续等待新邮件；shutdown 在所有 submit 退出之后才清除它
+	private volatile boolean running = true;
+
+	public MailDispatcher(int capacity, int workerCount, int batchSize, OverflowPolicy overflowPolicy,
+			Consumer<List<Mail>> sink) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.overflowPolicy = overflowPolicy;
+		this.sink = sink;
+		for (int i = 0; i < workerCount; i++) {
+			Thread worker = new Thread(this::drainLoop, "mail-dispatcher-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	public void submit(Mail mail) {
+		if (!enter()) {
+			// 已经关闭：不再入队，直接在调用方线程投递，保证不丢邮件
+			sink.accept(Collections.singletonList(mail));
+			return;
+		}
+		boolean queued;
+		try {
+			queued = enqueue(mail);
+		} finally {
+			state.decrementAndGet();
+		}
+		if (!queued) {
+			sink.accept(Collections.singletonList(mail));
+		}
+	}
+
+	/**
+	 * 登记一个正在入队的 submit；已经关闭时返回 false。
+	 */
+	private boolean enter() {
+		while (true) {
+			int s = state.get();
+			if ((s & SHUTDOWN) != 0) {
+				return false;
+			}
+			if (state.compareAndSet(s, s + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 返回 false 表示邮件没有入队也没有被丢弃，需要调用方自己投递（CALLER_RUNS，或等待期间 dispatcher 被关闭）。
+	 */
+	private boolean enqueue(Mail mail) {
+		if (queue.offer(mail)) {
+			return true;
+		}
+		switch (overflowPolicy) {
+		case BLOCK:
+			// 分段等待而不是 put：shutdown 之后最多 POLL_MILLIS 就能发现并退出，不会永远阻塞在已经没有 worker 的队列上
+			try {
+				while (!queue.offer(mail, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if ((state.get() & SHUTDOWN) != 0) {
+						return false;
+					}
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.incrementAndGet();
+				return true;
+			}
+		case DROP:
+			dropped.incrementAndGet();
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * 停止接收新邮件，等待 worker 把队列中剩余的邮件全部投递完，最多等待 timeoutMillis。
+	 */
+	public void shutdown(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		if ((state.getAndUpdate(s -> s | SHUTDOWN) & SHUTDOWN) != 0) {
+			return;
+		}
+		// 等正在入队的 submit 退出：offer 很快，BLOCK 等待中的最多 POLL_MILLIS 就会发现已经关闭；
+		// 这期间 worker 仍在消费，被阻塞的 submit 也可能直接入队成功
+		while ((state.get() & ~SHUTDOWN) != 0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		running = false;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			try {
+				worker.join(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		// worker 超时或被中断后，剩下的由当前线程投递掉；此时已经没有 submit 能再入队
+		List<Mail> rest = new ArrayList<>();
+		queue.drainTo(rest);
+		if (!rest.isEmpty()) {
+			sink.accept(rest);
+		}
+	}
+
+	private void drainLoop() {
+		List<Mail> batch = new ArrayList<>(batchSize);
+		while (true) {
+			Mail first;
+			try {
+				// 关闭后不再等待，只把队列中剩余的邮件取完
+				first = running ? queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS) : queue.poll();
+			} catch (InterruptedException e) {
+				// shutdown() 通过中断唤醒空闲的 worker
+				continue;
+			}
+			if (first == null) {
+				if (!running) {
+					return;
+				}
+				continue;
+			}
+			try {
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				sink.accept(batch);
+			} catch (RuntimeException e) {
+				System.err.println("In the MailDispatcher:failed to deliver " + batch.size() + " mail(s): " + e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+}
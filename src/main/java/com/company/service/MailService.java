@@ -1,13 +1,28 @@
 package com.company.service;
 
+import com.company.config.ConfigurationManager;
+import com.company.service.outbox.FileSinkTransport;
+import com.company.service.outbox.MailOutbox;
+import com.company.service.outbox.MailTransport;
+import com.company.startup.ParallelInit;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 @Component
 public class MailService {
@@ -19,29 +34,217 @@ public class MailService {
 	@Autowired(required = false)
 	ZoneId zoneId = ZoneId.systemDefault();
 
+	// 异步投递模式，参数来自 app.properties（通过 AppConfig 上的 @PropertySource 读取）:
+	// 打开后 sendLoginMail / sendRegistrationMail 只负责入队，格式化和输出都在 MailDispatcher 的 worker 线程中批量完成
+	@Value("${app.mail.async:false}")
+	boolean async;
+
+	@Value("${app.mail.queue-capacity:1024}")
+	int queueCapacity;
+
+	@Value("${app.mail.workers:1}")
+	int workers;
+
+	@Value("${app.mail.batch-size:64}")
+	int batchSize;
+
+	@Value("${app.mail.overflow:BLOCK}")
+	MailDispatcher.OverflowPolicy overflowPolicy;
+
+	@Value("${app.mail.shutdown-timeout-millis:5000}")
+	long shutdownTimeoutMillis;
+
+	private MailDispatcher dispatcher;
+
+	// 磁盘 outbox（MailOutbox）：打开后邮件先追加到磁盘上的段文件，进程崩溃后重启继续投递；优先于 app.mail.async
+	@Value("${app.mail.outbox.enabled:false}")
+	boolean outboxEnabled;
+
+	@Value("${app.mail.outbox.dir:data/outbox}")
+	String outboxDir;
+
+	@Value("${app.mail.outbox.segment-size:4194304}")
+	long outboxSegmentSize;
+
+	@Value("${app.mail.outbox.flush-interval-millis:10}")
+	long outboxFlushIntervalMillis;
+
+	// 发送线程每次交给 transport 的邮件数，每批 ack（fsync）一次
+	@Value("${app.mail.outbox.batch-size:1024}")
+	int outboxBatchSize;
+
+	// 为空时投递到 System.err（和同步模式一样），否则用 FileSinkTransport 追加到该文件
+	@Value("${app.mail.outbox.sink:}")
+	String outboxSink;
+
+	private MailOutbox outbox;
+
+	// 预编译的邮件模板，取代每封邮件都要解析格式串的 String.format:
+	private static final MailTemplate LOGIN_TEMPLATE = new MailTemplate("Hi, {name}! You are logged in at {time}");
+	private static final MailTemplate REGISTRATION_TEMPLATE = new MailTemplate("Welcome, {name}!");
+
+	// 每个投递线程复用自己的字符/字节缓冲区
+	private static final ThreadLocal<MailBuffer> BUFFERS = ThreadLocal.withInitial(MailBuffer::new);
+
+	// 缓存了格式化时间的时钟，在 init() 中按注入的 zoneId 创建；app.zone 热更新后整体替换，读的时候只是一次 volatile 读
+	private volatile MailClock clock;
+
+	@Autowired(required = false)
+	ConfigurationManager configurationManager;
+
 	// IoC容器--定制 Bean 的初始化和销毁（是个很好的切入点）:
 	// 有些时候，一个Bean在注入必要的依赖后，需要进行初始化（监听消息等）。在容器关闭时，有时候还需要清理资源（关闭连接池等）。
 	// 我们通常会定义一个init()方法进行初始化，定义一个shutdown()方法进行清理，然后，(在pom.xml中)引入JSR-250定义的Annotation：
-	@PostConstruct
-	public void init() {
+	// （这里的 init 要扫描 outbox 目录、恢复未投递的邮件，是启动时的 I/O，所以用 @ParallelInit 代替 @PostConstruct，
+	//  打开 app.startup.parallel 后与 UserStore 的恢复等并发执行；其他 Bean 的 @PostConstruct 不会发送邮件）
+	@ParallelInit
+	public void init() throws IOException {
 		System.out.println("In the MailService:Init mail service with zoneId = " + this.zoneId);
+		this.clock = new MailClock(this.zoneId);
+		if (configurationManager != null) {
+			configurationManager.subscribe((previous, current) -> {
+				if (!current.getZoneId().equals(previous.getZoneId())) {
+					this.clock = new MailClock(current.getZoneId());
+					System.out.println("In the MailService:zoneId changed to " + current.getZoneId());
+				}
+			});
+		}
+		if (outboxEnabled) {
+			MailTransport transport = outboxSink.isEmpty() ? this::deliver
+					: new FileSinkTransport(Paths.get(outboxSink), this::render);
+			this.outbox = new MailOutbox(Paths.get(outboxDir), outboxSegmentSize, outboxFlushIntervalMillis,
+					outboxBatchSize, transport);
+		} else if (async) {
+			this.dispatcher = new MailDispatcher(queueCapacity, workers, batchSize, overflowPolicy, this::deliver);
+		}
 	}
 
 	@PreDestroy
-	public void shutdown() {
+	public void shutdown() throws IOException, InterruptedException {
 		System.out.println("In the MailService:Shutdown mail service");
+		if (outbox != null) {
+			outbox.close(shutdownTimeoutMillis);
+		}
+		if (dispatcher != null) {
+			dispatcher.shutdown(shutdownTimeoutMillis);
+		}
 	}
 
 	public String getTime() {
-		return ZonedDateTime.now(this.zoneId).format(DateTimeFormatter.ISO_ZONED_DATE_TIME);
+		return clock.currentTime();
 	}
 
 	public void sendLoginMail(User user) {
-		System.err.println(String.format("Hi, %s! You are logged in at %s", user.getName(), getTime()));
+		dispatch(new Mail(Mail.Kind.LOGIN, user, System.currentTimeMillis()));
 	}
 
 	public void sendRegistrationMail(User user) {
-		System.err.println(String.format("Welcome, %s!", user.getName()));
+		dispatch(new Mail(Mail.Kind.REGISTRATION, user, System.currentTimeMillis()));
 	}
-}
 
+	/**
+	 * 批量注册时成批发送注册邮件：同步模式下每 batchSize 封写一次，异步模式下全部入队由 worker 成批投递，
+	 * outbox 模式下一次追加到 outbox。
+	 */
+	public void sendRegistrationMails(Collection<User> users) {
+		long now = System.currentTimeMillis();
+		if (outbox != null) {
+			List<Mail> mails = new ArrayList<>(users.size());
+			for (User user : users) {
+				mails.add(new Mail(Mail.Kind.REGISTRATION, user, now));
+			}
+			outbox.appendAll(mails);
+			return;
+		}
+		List<Mail> batch = new ArrayList<>(Math.min(users.size(), batchSize));
+		for (User user : users) {
+			Mail mail = new Mail(Mail.Kind.REGISTRATION, user, now);
+			if (dispatcher != null) {
+				dispatcher.submit(mail);
+				continue;
+			}
+			batch.add(mail);
+			if (batch.size() == batchSize) {
+				deliver(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			deliver(batch);
+		}
+	}
+
+	public long getDroppedCount() {
+		return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+	}
+
+	private void dispatch(Mail mail) {
+		if (outbox != null) {
+			outbox.append(mail);
+		} else if (dispatcher != null) {
+			dispatcher.submit(mail);
+		} else {
+			deliver(Collections.singletonList(mail));
+		}
+	}
+
+	/**
+	 * 投递一批邮件：全部渲染到当前线程复用的缓冲区，编码成 UTF-8 后一次性写到 System.err。
+	 */
+	void deliver(List<Mail> mails) {
+		MailBuffer buffer = BUFFERS.get();
+		StringBuilder sb = buffer.chars;
+		sb.setLength(0);
+		for (Mail mail : mails) {
+			render(mail, sb);
+			sb.append(System.lineSeparator());
+		}
+		ByteBuffer bytes = buffer.encode();
+		System.err.write(bytes.array(), 0, bytes.limit());
+		System.err.flush();
+	}
+
+	void render(Mail mail, StringBuilder out) {
+		MailClock clock = this.clock;
+		switch (mail.getKind()) {
+		case LOGIN:
+			LOGIN_TEMPLATE.render(mail, clock, out);
+			break;
+		case REGISTRATION:
+			REGISTRATION_TEMPLATE.render(mail, clock, out);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown mail kind: " + mail.getKind());
+		}
+	}
+
+	private static final class MailBuffer {
+		final StringBuilder chars = new StringBuilder(256);
+		final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+		ByteBuffer encode() {
+			CharBuffer in = CharBuffer.wrap(chars);
+			encoder.reset();
+			bytes.clear();
+			while (true) {
+				CoderResult result = in.hasRemaining() ? encoder.encode(in, bytes, true) : CoderResult.UNDERFLOW;
+				if (result.isUnderflow()) {
+					result = encoder.flush(bytes);
+				}
+				if (result.isUnderflow()) {
+					break;
+				}
+				// 空间不足：扩容后继续编码
+				ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() * 2);
+				bytes.flip();
+				larger.put(bytes);
+				bytes = larger;
+			}
+			bytes.flip();
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.company.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的邮件模板，支持 {name}、{email}、{time} 三个占位符。
+ * 模板在构造时拆成固定片段和占位符，render 时直接追加到调用方提供的（可复用的）StringBuilder，
+ * 不再像 String.format 那样每次都解析格式串并产生中间字符串。
+ */
+public class MailTemplate {
+
+	private enum Field {
+		NAME, EMAIL, TIME
+	}
+
+	private final String[] literals;
+	private final Field[] fields;
+
+	public MailTemplate(String pattern) {
+		List<String> literals = new ArrayList<>();
+		List<Field> fields = new ArrayList<>();
+		int start = 0;
+		int open;
+		while ((open = pattern.indexOf('{', start)) >= 0) {
+			int close = pattern.indexOf('}', open);
+			if (close < 0) {
+				throw new IllegalArgumentException("unclosed placeholder in mail template: " + pattern);
+			}
+			literals.add(pattern.substring(start, open));
+			fields.add(parseField(pattern.substring(open + 1, close), pattern));
+			start = close + 1;
+		}
+		literals.add(pattern.substring(start));
+		this.literals = literals.toArray(new String[0]);
+		this.fields = fields.toArray(new Field[0]);
+	}
+
+	private static Field parseField(String name, String pattern) {
+		switch (name) {
+		case "name":
+			return Field.NAME;
+		case "email":
+			return Field.EMAIL;
+		case "time":
+			return Field.TIME;
+		default:
+			throw new IllegalArgumentException("unknown placeholder {" + name + "} in mail template: " + pattern);
+		}
+	}
+
+	public void render(Mail mail, MailClock clock, StringBuilder out) {
+		for (int i = 0; i < fields.length; i++) {
+			out.append(literals[i]);
+			switch (fields[i]) {
+			case NAME:
+				out.append(mail.getUser().getName());
+				break;
+			case EMAIL:
+				out.append(mail.getUser().getEmail());
+				break;
+			case TIME:
+				clock.appendTo(out, mail.getTimestamp());
+				break;
+			}
+		}
+		out.append(literals[fields.length]);
+	}
+}
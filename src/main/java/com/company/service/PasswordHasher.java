@@ -0,0 +1,25 @@
+package com.company.service;
+
+/**
+ * 密码哈希的抽象：register 时用 hash 生成要保存的密文，login 时用 verify 校验。
+ * 默认实现是 Pbkdf2PasswordHasher；要换成别的算法，只需要再提供一个标注 @Primary 的 PasswordHasher Bean。
+ */
+public interface PasswordHasher {
+
+	/**
+	 * 生成要保存的密文，其中应包含校验所需的盐和代价参数。
+	 */
+	String hash(String password);
+
+	/**
+	 * password 或 encoded 为 null、密文格式不对时返回 false，不抛异常。
+	 */
+	boolean verify(String password, String encoded);
+
+	/**
+	 * 密文是否应该在下次登录成功时用 hash 重新生成（例如旧数据中的明文密码）。
+	 */
+	default boolean needsRehash(String encoded) {
+		return false;
+	}
+}
@@ -0,0 +1,96 @@
+package com.company.service;
+
+import com.company.config.ConfigurationManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2WithHmacSHA256 实现，代价（迭代次数）由 app.password.iterations 配置。
+ * 密文格式为 pbkdf2$迭代次数$盐$哈希，迭代次数记录在密文中，因此调整代价后旧密文仍然可以校验。
+ * <p>
+ * 不以 pbkdf2$ 开头的密文视为旧数据中的明文密码（例如 AppConfig 中创建的初始用户），按常量时间比较，
+ * needsRehash 对它们返回 true，登录成功后由 UserService 换成哈希后的密文。
+ */
+@Component
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final String PREFIX = "pbkdf2$";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BITS = 256;
+
+	private final SecureRandom random = new SecureRandom();
+
+	@Value("${app.password.iterations:10000}")
+	volatile int iterations;
+
+	@Autowired(required = false)
+	ConfigurationManager configurationManager;
+
+	@PostConstruct
+	public void init() {
+		// 调整 app.password.iterations 后，新注册的密码使用新的代价，已有密文不受影响
+		if (configurationManager != null) {
+			configurationManager.subscribe((previous, current) -> this.iterations = current.getPasswordIterations());
+		}
+	}
+
+	@Override
+	public String hash(String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		random.nextBytes(salt);
+		Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+		return PREFIX + iterations + '$' + encoder.encodeToString(salt) + '$'
+				+ encoder.encodeToString(derive(password, salt, iterations));
+	}
+
+	@Override
+	public boolean verify(String password, String encoded) {
+		if (password == null || encoded == null) {
+			return false;
+		}
+		if (!encoded.startsWith(PREFIX)) {
+			return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+					encoded.getBytes(StandardCharsets.UTF_8));
+		}
+		String[] parts = encoded.split("\\$");
+		if (parts.length != 4) {
+			return false;
+		}
+		try {
+			Base64.Decoder decoder = Base64.getDecoder();
+			byte[] expected = decoder.decode(parts[3]);
+			return MessageDigest.isEqual(expected,
+					derive(password, decoder.decode(parts[2]), Integer.parseInt(parts[1])));
+		} catch (IllegalArgumentException e) {
+			// 损坏的密文（Base64 / 迭代次数解析失败、迭代次数非正数）按校验失败处理，不让登录抛出异常
+			return false;
+		}
+	}
+
+	@Override
+	public boolean needsRehash(String encoded) {
+		return encoded != null && !encoded.startsWith(PREFIX);
+	}
+
+	private static byte[] derive(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.company.service;
+
+/**
+ * 批量注册（UserService.registerAll）中的一条注册请求。
+ */
+public class Registration {
+
+	private final String email;
+	private final String password;
+	private final String name;
+
+	public Registration(String email, String password, String name) {
+		this.email = email;
+		this.password = password;
+		this.name = name;
+	}
+
+	/**
+	 * 解析一行 CSV：email,password,name（name 可以包含逗号，不支持引号转义）。格式不对时返回 null。
+	 */
+	public static Registration parseCsv(String line) {
+		int first = line.indexOf(',');
+		int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+		if (second < 0) {
+			return null;
+		}
+		return new Registration(line.substring(0, first).trim(), line.substring(first + 1, second),
+				line.substring(second + 1).trim());
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	boolean isValid() {
+		return email != null && email.indexOf('@') > 0 && password != null && !password.isEmpty() && name != null
+				&& !name.isEmpty();
+	}
+}
@@ -0,0 +1,177 @@
+package com.company.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存、无锁的按 key 滑动窗口计数器。
+ * <p>
+ * 每个条目是一个 long，用一次 CAS 更新：
+ * <pre>
+ * [fingerprint:16][window:16][previous:16][current:16]
+ * </pre>
+ * window 是当前窗口编号（时间 / windowMillis 的低 16 位），previous / current 是上一个和当前窗口的计数（饱和在 65535）。
+ * 滑动窗口内的次数按上一个窗口剩余的比例估算：previous * (1 - 当前窗口已过去的比例) + current。
+ * <p>
+ * 表按 key 的哈希分成 WAYS 路组相联的组（stripe），key 只会落在自己组内的 WAYS 个条目之一，用 fingerprint 区分。
+ * 组内没有匹配的条目时，优先占用空的或已过期（两个窗口没更新）的条目，否则淘汰估算次数最少的条目，所以内存固定，过期数据自动回收。
+ * 被淘汰、或 fingerprint 碰撞都只会让计数偏小或偏大一点，对限流来说可以接受。
+ */
+final class SlidingWindowCounters {
+
+	private static final int WAYS = 8;
+	private static final int MAX_COUNT = 0xffff;
+	// 竞争激烈时放弃本次计数，限流不要求精确
+	private static final int MAX_ATTEMPTS = 8;
+
+	private final AtomicLongArray entries;
+	private final int setMask;
+	private final long windowMillis;
+	// 每个实例随机的哈希种子，防止攻击者构造出全部落在同一组里的 key
+	private final long seed = ThreadLocalRandom.current().nextLong();
+
+	/**
+	 * @param capacity 最多同时跟踪的 key 数，向上取整到 WAYS 乘以 2 的幂
+	 */
+	SlidingWindowCounters(int capacity, long windowMillis) {
+		int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS - 1)) << 1;
+		this.entries = new AtomicLongArray(sets * WAYS);
+		this.setMask = sets - 1;
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * key 在滑动窗口内的估算次数。
+	 */
+	int estimate(String key, long now) {
+		long hash = hash(key);
+		int base = base(hash);
+		long fingerprint = fingerprint(hash);
+		long window = window(now);
+		for (int i = 0; i < WAYS; i++) {
+			long entry = entries.get(base + i);
+			if (entry != 0 && (entry >>> 48) == fingerprint) {
+				return estimate(roll(entry, window), now);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * key 的计数加一，返回加一之后的估算次数。
+	 */
+	int increment(String key, long now) {
+		long hash = hash(key);
+		int base = base(hash);
+		long fingerprint = fingerprint(hash);
+		long window = window(now);
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			int victim = -1;
+			long victimEntry = 0;
+			int victimEstimate = Integer.MAX_VALUE;
+			for (int i = 0; i < WAYS; i++) {
+				int index = base + i;
+				long entry = entries.get(index);
+				if (entry != 0 && (entry >>> 48) == fingerprint) {
+					long rolled = roll(entry, window);
+					long current = Math.min(MAX_COUNT, (rolled & 0xffff) + 1);
+					long updated = (rolled & ~0xffffL) | current;
+					if (entries.compareAndSet(index, entry, updated)) {
+						return estimate(updated, now);
+					}
+					victim = -2;
+					break;
+				}
+				int e = entry == 0 ? 0 : estimate(roll(entry, window), now);
+				if (e < victimEstimate) {
+					victim = index;
+					victimEntry = entry;
+					victimEstimate = e;
+				}
+			}
+			if (victim == -2) {
+				// 匹配的条目被并发修改，重新读
+				continue;
+			}
+			long created = (fingerprint << 48) | (window << 32) | 1;
+			// 只在扫描之后没被别人改过时才覆盖
+			if (entries.compareAndSet(victim, victimEntry, created)) {
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * 清除 key 的计数（例如登录成功后清除该 email 的失败次数）。
+	 */
+	void reset(String key) {
+		long hash = hash(key);
+		int base = base(hash);
+		long fingerprint = fingerprint(hash);
+		for (int i = 0; i < WAYS; i++) {
+			long entry = entries.get(base + i);
+			if (entry != 0 && (entry >>> 48) == fingerprint) {
+				entries.compareAndSet(base + i, entry, 0);
+				return;
+			}
+		}
+	}
+
+	int capacity() {
+		return entries.length();
+	}
+
+	/**
+	 * 把条目滚动到 window：同一窗口不变；相邻窗口时 current 变成 previous；更早的清零。
+	 */
+	private static long roll(long entry, long window) {
+		long entryWindow = (entry >>> 32) & 0xffff;
+		if (entryWindow == window) {
+			return entry;
+		}
+		long head = entry & 0xffff000000000000L;
+		if (((entryWindow + 1) & 0xffff) == window) {
+			return head | (window << 32) | ((entry & 0xffff) << 16);
+		}
+		return head | (window << 32);
+	}
+
+	private int estimate(long entry, long now) {
+		long previous = (entry >>> 16) & 0xffff;
+		long current = entry & 0xffff;
+		long elapsed = now % windowMillis;
+		return (int) (current + previous * (windowMillis - elapsed) / windowMillis);
+	}
+
+	private long window(long now) {
+		return (now / windowMillis) & 0xffff;
+	}
+
+	private int base(long hash) {
+		return ((int) hash & setMask) * WAYS;
+	}
+
+	private static long fingerprint(long hash) {
+		// fingerprint 为 0 的条目会被当成空条目，避开 0
+		long fingerprint = hash >>> 48;
+		return fingerprint == 0 ? 1 : fingerprint;
+	}
+
+	/**
+	 * 带种子的 FNV-1a，再用 MurmurHash3 的 fmix64 打散；不分配对象。
+	 */
+	private long hash(String key) {
+		long h = seed ^ 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb3fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,26 @@
+package com.company.service;
+
+import java.util.stream.Stream;
+
+/**
+ * 按 email / name 排序的用户查询，只有 app.users.sorted-index=true 时才有实现（IndexedUserRepository）。
+ * 不放在 UserRepository 中：没有排序索引的存储不必提供只会抛异常的空实现。
+ */
+public interface SortedUserIndex {
+
+	/**
+	 * email（忽略大小写）以 prefix 开头的用户，按 email 排序，最多 limit 个。
+	 */
+	Stream<User> findByEmailPrefix(String prefix, int limit);
+
+	/**
+	 * name（忽略大小写）以 prefix 开头的用户，按 name、id 排序，最多 limit 个。
+	 */
+	Stream<User> findByNamePrefix(String prefix, int limit);
+
+	/**
+	 * 按 email 排序分页遍历全部用户：返回 email 排在 afterCursor 之后的最多 limit 个用户，afterCursor 为 null 时从头开始。
+	 * 下一页的 afterCursor 传本页最后一个用户的 email。
+	 */
+	Stream<User> streamAll(String afterCursor, int limit);
+}
@@ -0,0 +1,66 @@
+package com.company.service;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * 用户存储。email 按 foldEmail 忽略大小写且唯一，id 唯一。
+ * 实现由 AppConfig 按 app.users.storage 选择：heap（ConcurrentUserRepository）或 compact（CompactUserRepository），
+ * app.users.shards 大于 0 时用 ShardedUserRepository 把用户分到多个分片上；
+ * app.users.sorted-index=true 时再包一层 IndexedUserRepository，它同时实现 SortedUserIndex 提供排序查询。
+ */
+public interface UserRepository {
+
+	/**
+	 * email 统一按 Locale.ROOT 转小写后作为索引 key，与原来的 equalsIgnoreCase 语义保持一致。
+	 */
+	static String foldEmail(String email) {
+		return email.toLowerCase(Locale.ROOT);
+	}
+
+	User findById(long id);
+
+	User findByEmail(String email);
+
+	/**
+	 * 按 id 批量查询，结果与 ids 一一对应，不存在的 id 对应 null。分片存储按分片合并成批量请求。
+	 */
+	default User[] findAllById(long[] ids) {
+		User[] users = new User[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			users[i] = findById(ids[i]);
+		}
+		return users;
+	}
+
+	/**
+	 * 分配新 id 并插入用户；email 已存在时返回 null。
+	 */
+	User create(String email, String password, String name);
+
+	/**
+	 * 插入一个已带 id 的用户（初始数据、从磁盘恢复的数据），id 或 email 已存在时返回 false。
+	 */
+	boolean add(User user);
+
+	void remove(User user);
+
+	/**
+	 * 批量删除，语义同逐个 remove；compact 存储只加一次写锁，分片存储按分片合并成批量请求。
+	 */
+	default void removeAll(Collection<User> users) {
+		for (User user : users) {
+			remove(user);
+		}
+	}
+
+	/**
+	 * 把 user 的密文换成 password，只有存储中这个 id 仍是同一个 email、且密文仍是 user.getPassword() 时才替换。
+	 * 返回替换后的用户；用户已被删除或密文已被并发修改时返回 null。
+	 */
+	User updatePassword(User user, String password);
+
+	Collection<User> findAll();
+
+	int size();
+}
@@ -1,11 +1,27 @@
 package com.company.service;
 
-import com.google.common.collect.Lists;
+import com.company.service.store.UserStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Component
 public class UserService {
@@ -13,60 +29,331 @@ public class UserService {
 	@Autowired
 	MailService mailService;
 
-	public UserService(@Autowired MailService mailService) {
+	// 用户数据放在 UserRepository 中：按 id / email 哈希索引，线程安全，取代原来线性扫描的 List<User>；实现见 AppConfig
+	@Autowired
+	UserRepository userRepository;
+
+	// 排序查询只在 app.users.sorted-index=true 时可用，由同一个 IndexedUserRepository 提供；
+	// userRepository 通过构造方法先创建出来，这里按实际类型就能找到它
+	@Autowired(required = false)
+	SortedUserIndex sortedUserIndex;
+
+	// 持久化：register 返回前新用户已写入磁盘日志（app.store.enabled=false 时不做任何事）
+	@Autowired
+	UserStore userStore;
+
+	// 密码只保存哈希后的密文；最近校验成功的凭据缓存在 CredentialCache 中，热点账号重复登录不必每次都重新计算哈希
+	@Autowired
+	PasswordHasher passwordHasher;
+
+	@Autowired
+	CredentialCache credentialCache;
+
+	// 按 email / 来源的失败次数限流，超过限制的登录在查用户之前就被拒绝
+	@Autowired
+	LoginThrottle loginThrottle;
+
+	// 批量注册 / 批量查询使用的 ForkJoinPool 的并行度，0 表示 CPU 核数
+	@Value("${app.users.bulk-parallelism:0}")
+	int bulkParallelism;
+
+	private ForkJoinPool bulkPool;
+
+	// 登录时 email 不存在也要对它跑一次完整的密码校验，响应时间才不会暴露账号是否存在；第一次用到时按当时的代价生成
+	private volatile String dummyHash;
+
+	// 批量查询的 id 少于这个数时直接在调用方线程上顺序查
+	private static final int PARALLEL_LOOKUP_THRESHOLD = 1024;
+
+	// registerAll 中每条请求的处理结果
+	private static final byte REGISTERED = 0;
+	private static final byte INVALID = 1;
+	private static final byte DUPLICATE_IN_BATCH = 2;
+	private static final byte ALREADY_EXISTS = 3;
+	private static final byte FAILED = 4;
+
+	// registerAll 每次从流中取出并处理的请求数，内存占用只和它有关，与导入总量无关
+	private static final int BULK_CHUNK = 4096;
+
+	public UserService(@Autowired MailService mailService, @Autowired UserRepository userRepository,
+			@Autowired UserStore userStore, @Autowired PasswordHasher passwordHasher,
+			@Autowired CredentialCache credentialCache, @Autowired LoginThrottle loginThrottle) {
 		this.mailService = mailService;
+		this.userRepository = userRepository;
+		this.userStore = userStore;
+		this.passwordHasher = passwordHasher;
+		this.credentialCache = credentialCache;
+		this.loginThrottle = loginThrottle;
 	}
 
-	// Java version:
-	// private List<User> users = new ArrayList<>(List.of( // users:
-	// 		new User(1, "bob@example.com", "password", "Bob"), // bob
-	// 		new User(2, "alice@example.com", "password", "Alice"), // alice
-	// 		new User(3, "tom@example.com", "password", "Tom"))); // tom
-	//
-	// Arrays.asList 只能创建只读 list:
-	// private List<User> users = Arrays.asList(
+	@PostConstruct
+	public void init() {
+		this.bulkPool = new ForkJoinPool(
+				bulkParallelism > 0 ? bulkParallelism : Runtime.getRuntime().availableProcessors());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		bulkPool.shutdown();
+	}
+
+	// 原来的实现（Guava 的 Lists.newArrayList，每次登录都要线性扫描，并发注册时不安全）:
+	// private List<User> users = Lists.newArrayList(
 	// 		new User(1, "bob@example.com", "password", "Bob"), // bob
 	// 		new User(2, "alice@example.com", "password", "Alice"), // alice
 	// 		new User(3, "tom@example.com", "password", "Tom") // tom
 	// );
-	private List<User> users = Lists.newArrayList(
-			new User(1, "bob@example.com", "password", "Bob"), // bob
-			new User(2, "alice@example.com", "password", "Alice"), // alice
-			new User(3, "tom@example.com", "password", "Tom") // tom
-	);
 
 	public User login(String email, String password) {
-		for (User user : users) {
-			if (user.getEmail().equalsIgnoreCase(email) && user.getPassword().equals(password)) {
-				mailService.sendLoginMail(user);
-				return user;
-			}
+		return login(email, password, null);
+	}
+
+	/**
+	 * source 是请求来源（例如客户端地址），用于按来源限流，未知时传 null。
+	 * 失败时抛出预先创建好的 LoginFailedException（FAILED / THROTTLED），不收集栈。
+	 */
+	public User login(String email, String password, String source) {
+		if (loginThrottle.isThrottled(email, source)) {
+			throw LoginFailedException.THROTTLED;
 		}
-		throw new RuntimeException("login failed.");
+		User user = userRepository.findByEmail(email);
+		if (user == null) {
+			passwordHasher.verify(password, dummyHash());
+		} else if (verifyPassword(user, password)) {
+			loginThrottle.onSuccess(email);
+			user = rehashIfNeeded(user, password);
+			mailService.sendLoginMail(user);
+			return user;
+		}
+		loginThrottle.onFailure(email, source);
+		throw LoginFailedException.FAILED;
 	}
 
 	public User getUser(long id) {
-		// Java version:
-		// return this.users.stream().filter(user -> user.getId() == id).findFirst().orElseThrow();
-		return this.users.stream().filter(user -> user.getId() == id).findFirst().orElseThrow(RuntimeException::new);
+		User user = userRepository.findById(id);
+		if (user == null) {
+			throw new RuntimeException();
+		}
+		return user;
 	}
 
 	public User register(String email, String password, String name) {
-		// Java version:
-		// users.forEach((user) -> {
-		// 	if (user.getEmail().equalsIgnoreCase(email)) {
-		// 		throw new RuntimeException("email exist.");
-		// 	}
-		// });
-		for(User user: users){
-			if (user.getEmail().equalsIgnoreCase(email)) {
-				throw new RuntimeException("email exist.");
-			}
+		// 已注册的 email 在计算哈希之前就拒绝；唯一性仍由 UserRepository.create 原子保证（并发注册同一个 email 时只有一个成功）:
+		if (userRepository.findByEmail(email) != null) {
+			throw new RuntimeException("email exist.");
+		}
+		User user = userRepository.create(email, passwordHasher.hash(password), name);
+		if (user == null) {
+			throw new RuntimeException("email exist.");
+		}
+		try {
+			userStore.append(user);
+		} catch (RuntimeException e) {
+			// 没能持久化就不算注册成功，撤销内存中的插入
+			userRepository.remove(user);
+			throw e;
 		}
-
-		User user = new User(users.stream().mapToLong(u -> u.getId()).max().getAsLong(), email, password, name);
-		users.add(user);
 		mailService.sendRegistrationMail(user);
 		return user;
 	}
+
+	/**
+	 * 按 id 批量查询，返回的数组与 ids 一一对应，不存在的 id 对应 null。
+	 */
+	public User[] getUsers(long[] ids) {
+		if (ids.length < PARALLEL_LOOKUP_THRESHOLD) {
+			return userRepository.findAllById(ids);
+		}
+		// 按 PARALLEL_LOOKUP_THRESHOLD 分块并行，每块一次批量查询（分片存储下每块对每个分片只发一次请求）。
+		// 在 bulkPool 中提交的并行流会使用 bulkPool 的线程，而不是公共的 ForkJoinPool
+		User[] users = new User[ids.length];
+		int chunks = (ids.length + PARALLEL_LOOKUP_THRESHOLD - 1) / PARALLEL_LOOKUP_THRESHOLD;
+		invoke(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			int from = chunk * PARALLEL_LOOKUP_THRESHOLD;
+			int to = Math.min(ids.length, from + PARALLEL_LOOKUP_THRESHOLD);
+			User[] found = userRepository.findAllById(Arrays.copyOfRange(ids, from, to));
+			System.arraycopy(found, 0, users, from, found.length);
+		}));
+		return users;
+	}
+
+	/**
+	 * email 以 prefix 开头（忽略大小写）的用户，按 email 排序，最多 limit 个。需要 app.users.sorted-index=true。
+	 */
+	public Stream<User> findByEmailPrefix(String prefix, int limit) {
+		return sortedIndex().findByEmailPrefix(prefix, limit);
+	}
+
+	public Stream<User> findByNamePrefix(String prefix, int limit) {
+		return sortedIndex().findByNamePrefix(prefix, limit);
+	}
+
+	/**
+	 * 按 email 排序的分页遍历，供管理和导出任务使用：afterCursor 传上一页最后一个用户的 email，第一页传 null。
+	 * 返回的 Stream 直接遍历索引，不复制数据，可以和 register 并发执行。
+	 */
+	public Stream<User> streamAll(String afterCursor, int limit) {
+		return sortedIndex().streamAll(afterCursor, limit);
+	}
+
+	private SortedUserIndex sortedIndex() {
+		if (sortedUserIndex == null) {
+			throw new IllegalStateException("sorted user queries need app.users.sorted-index=true");
+		}
+		return sortedUserIndex;
+	}
+
+	/**
+	 * 从 CSV 文件批量注册，每行 email,password,name；第一行是 email,password,name 表头时跳过。
+	 */
+	public BulkRegistration registerAll(Path csv) {
+		try (Stream<String> lines = Files.lines(csv, StandardCharsets.UTF_8)) {
+			return registerAll(lines.filter(line -> !line.isEmpty() && !line.startsWith("email,"))
+					.map(Registration::parseCsv));
+		} catch (IOException e) {
+			throw new UncheckedIOException("failed to read " + csv, e);
+		}
+	}
+
+	/**
+	 * 批量注册：按 BULK_CHUNK 条一块从流中读取，不把整个流收集到内存里；每块在 bulkPool 中并行校验、计算密码哈希并插入，
+	 * 同一块中 email 重复（忽略大小写）时只保留最先出现的一条，与前面块中已注册的 email 重复的计入 alreadyExists。
+	 * 每块的新用户一起持久化（一次 group commit），持久化失败的从内存中撤销，注册邮件也按块成批发送。流中的 null 视为格式错误的请求。
+	 */
+	public BulkRegistration registerAll(Stream<Registration> registrations) {
+		long start = System.nanoTime();
+		int[] tally = new int[FAILED + 1];
+		Iterator<Registration> iterator = registrations.iterator();
+		List<Registration> chunk = new ArrayList<>(BULK_CHUNK);
+		while (iterator.hasNext()) {
+			chunk.add(iterator.next());
+			if (chunk.size() == BULK_CHUNK || !iterator.hasNext()) {
+				registerChunk(chunk, tally);
+				chunk.clear();
+			}
+		}
+		return new BulkRegistration(tally[REGISTERED], tally[INVALID], tally[DUPLICATE_IN_BATCH],
+				tally[ALREADY_EXISTS], tally[FAILED], System.nanoTime() - start);
+	}
+
+	/**
+	 * 注册一块请求，把各类结果的条数累加到 tally 中（下标是 REGISTERED 等结果）。
+	 */
+	private void registerChunk(List<Registration> requests, int[] tally) {
+		int count = requests.size();
+		byte[] outcomes = new byte[count];
+		User[] created = new User[count];
+		invoke(() -> {
+			// 1. 校验，并为每个 email 记下它第一次出现的位置
+			ConcurrentMap<String, Integer> firstIndex = new ConcurrentHashMap<>(count * 2);
+			IntStream.range(0, count).parallel().forEach(i -> {
+				Registration request = requests.get(i);
+				if (request == null || !request.isValid()) {
+					outcomes[i] = INVALID;
+				} else {
+					firstIndex.merge(UserRepository.foldEmail(request.getEmail()), i, Math::min);
+				}
+			});
+			// 2. 去重后计算哈希并插入，已存在的 email 在计算哈希之前就跳过
+			IntStream.range(0, count).parallel().forEach(i -> {
+				if (outcomes[i] == INVALID) {
+					return;
+				}
+				Registration request = requests.get(i);
+				if (firstIndex.get(UserRepository.foldEmail(request.getEmail())) != i) {
+					outcomes[i] = DUPLICATE_IN_BATCH;
+					return;
+				}
+				User user = userRepository.findByEmail(request.getEmail()) != null ? null
+						: userRepository.create(request.getEmail(), passwordHasher.hash(request.getPassword()),
+								request.getName());
+				if (user == null) {
+					outcomes[i] = ALREADY_EXISTS;
+				} else {
+					created[i] = user;
+				}
+			});
+		});
+		List<User> registered = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			if (outcomes[i] == REGISTERED) {
+				registered.add(created[i]);
+			} else {
+				tally[outcomes[i]]++;
+			}
+		}
+		List<User> failed;
+		try {
+			failed = userStore.appendAll(registered);
+		} catch (RuntimeException e) {
+			// 整块都没能持久化（例如存储已经关闭），这一块的插入全部撤销
+			userRepository.removeAll(registered);
+			throw e;
+		}
+		userRepository.removeAll(failed);
+		registered.removeAll(failed);
+		tally[REGISTERED] += registered.size();
+		tally[FAILED] += failed.size();
+		mailService.sendRegistrationMails(registered);
+	}
+
+	private void invoke(Runnable task) {
+		try {
+			bulkPool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private boolean verifyPassword(User user, String password) {
+		if (password == null) {
+			return false;
+		}
+		String encoded = user.getPassword();
+		if (credentialCache.isVerified(user.getEmail(), password, encoded)) {
+			return true;
+		}
+		if (passwordHasher.verify(password, encoded)) {
+			credentialCache.markVerified(user.getEmail(), password, encoded);
+			return true;
+		}
+		return false;
+	}
+
+	private String dummyHash() {
+		String hash = dummyHash;
+		if (hash == null) {
+			hash = passwordHasher.hash("dummy password");
+			dummyHash = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * 登录成功时把旧数据中的明文密码换成哈希后的密文并持久化。失败不影响这次登录：
+	 * 内存中换成功但没能持久化时，磁盘上的旧密文和内存中的新密文校验的是同一个密码，重启后再次登录会重新升级。
+	 */
+	private User rehashIfNeeded(User user, String password) {
+		if (!passwordHasher.needsRehash(user.getPassword())) {
+			return user;
+		}
+		try {
+			User rehashed = userRepository.updatePassword(user, passwordHasher.hash(password));
+			if (rehashed == null) {
+				// 并发的登录已经升级过，或者用户刚被删除
+				return user;
+			}
+			userStore.append(rehashed);
+			return rehashed;
+		} catch (RuntimeException e) {
+			System.err.println("In the UserService:failed to rehash the password of user " + user.getId() + ": " + e);
+			return user;
+		}
+	}
 }
@@ -0,0 +1,62 @@
+package com.company.service.outbox;
+
+import com.company.service.Mail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 代替真实邮件服务器的本地 transport：把渲染好的邮件逐行追加到一个文件，每批 fsync 一次后才算投递成功。
+ * 用于离线测试 outbox 的吞吐和崩溃恢复（统计文件行数即可核对投递数量和重复投递）。
+ * 只由 MailOutbox 的发送线程调用，不是线程安全的。
+ */
+public class FileSinkTransport implements MailTransport {
+
+	private final Path path;
+	private final FileChannel channel;
+	private final BiConsumer<Mail, StringBuilder> renderer;
+	private final StringBuilder chars = new StringBuilder(4096);
+
+	public FileSinkTransport(Path path, BiConsumer<Mail, StringBuilder> renderer) throws IOException {
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		this.renderer = renderer;
+	}
+
+	@Override
+	public void send(List<Mail> mails) throws IOException {
+		chars.setLength(0);
+		for (Mail mail : mails) {
+			renderer.accept(mail, chars);
+			chars.append(System.lineSeparator());
+		}
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars));
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "file:" + path;
+	}
+}
@@ -0,0 +1,534 @@
+package com.company.service.outbox;
+
+import com.company.service.Mail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘上的邮件发件箱，进程崩溃后未发出的邮件在下次启动时继续投递。
+ * <p>
+ * 三方分工：
+ * <ul>
+ * <li>调用方（append）：在自己的线程里编码记录，加锁后只做一次内存拷贝到暂存缓冲区，不碰磁盘；</li>
+ * <li>写线程：每 flushIntervalMillis（或暂存超过 FLUSH_BYTES）把暂存区整体写入当前段文件并 fsync 一次（group commit），
+ * 段文件超过 segmentSize 后换下一个段；</li>
+ * <li>发送线程：只读已经 fsync 的部分，成批交给 MailTransport，成功后把读位置写入 outbox.ack 并 fsync；
+ * 一个段全部投递后先推进 ack 再删除该段文件。</li>
+ * </ul>
+ * 因此 append 返回后最多 flushIntervalMillis 内的邮件在崩溃时可能丢失；已经落盘但没有 ack 的邮件在重启后会重新投递（at-least-once）。
+ * <p>
+ * 段文件名是 outbox-&lt;段号&gt;.seg，开头是 16 字节文件头（MAGIC、段号），之后是 MailRecords 编码的记录。
+ * 每次启动都写新的段，旧段里崩溃时写了一半的尾巴在读到时跳过。写线程和发送线程都不用 interrupt 停止：
+ * 中断会关闭正在读写的 FileChannel。
+ */
+public class MailOutbox {
+
+	private static final int MAGIC = 0x4d4f5842; // "MOXB"
+	private static final int SEGMENT_HEADER_BYTES = 16;
+	private static final String SEGMENT_PREFIX = "outbox-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String ACK_FILE = "outbox.ack";
+	private static final int ACK_BYTES = 20;
+
+	// 暂存超过 FLUSH_BYTES 时不等 flushIntervalMillis 立即写盘；超过 MAX_STAGED_BYTES 时 append 等待写线程
+	private static final int FLUSH_BYTES = 256 * 1024;
+	private static final int MAX_STAGED_BYTES = 8 * 1024 * 1024;
+	private static final int READ_BUFFER_BYTES = 256 * 1024;
+	private static final long RETRY_MILLIS = 1000;
+
+	private final Path directory;
+	private final long segmentSize;
+	private final long flushIntervalMillis;
+	private final int batchSize;
+	private final MailTransport transport;
+
+	// 调用方与写线程共享，由 lock 保护
+	private final Object lock = new Object();
+	private ByteBuffer staging = ByteBuffer.allocate(64 * 1024);
+	private boolean closed;
+
+	// 只由写线程访问
+	private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+	private FileChannel segment;
+	private long segmentId;
+
+	// 写线程发布的已 fsync 位置，发送线程在 durableSignal 上等待它前进
+	private final Object durableSignal = new Object();
+	private volatile Position durable;
+
+	// 只由发送线程修改；close 时读取以判断是否已经追上
+	private volatile long cursorSegment;
+	private volatile long cursorOffset;
+	private volatile boolean stopSender;
+	private FileChannel reading;
+	private final FileChannel ackChannel;
+
+	private final AtomicLong appended = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+
+	private final Thread writer;
+	private final Thread sender;
+
+	public MailOutbox(Path directory, long segmentSize, long flushIntervalMillis, int batchSize,
+			MailTransport transport) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.batchSize = batchSize;
+		this.transport = transport;
+		Files.createDirectories(directory);
+		this.ackChannel = FileChannel.open(directory.resolve(ACK_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long pending = recover();
+		this.writer = new Thread(this::writeLoop, "mail-outbox-writer");
+		this.writer.setDaemon(true);
+		this.sender = new Thread(this::sendLoop, "mail-outbox-sender");
+		this.sender.setDaemon(true);
+		this.writer.start();
+		this.sender.start();
+		System.out.println(String.format("In the MailOutbox:Opened %s with %d bytes of undelivered mails",
+				directory.toAbsolutePath(), pending));
+	}
+
+	/**
+	 * 把邮件追加到暂存区后立即返回，不等待写盘。
+	 */
+	public void append(Mail mail) {
+		byte[] record = MailRecords.encode(mail);
+		synchronized (lock) {
+			awaitCapacity(record.length);
+			stage(record);
+		}
+		appended.incrementAndGet();
+	}
+
+	/**
+	 * 一次加锁追加一批邮件，这一批通常落在同一次 fsync 中。
+	 */
+	public void appendAll(Collection<Mail> mails) {
+		List<byte[]> records = new ArrayList<>(mails.size());
+		int bytes = 0;
+		for (Mail mail : mails) {
+			byte[] record = MailRecords.encode(mail);
+			records.add(record);
+			bytes += record.length;
+		}
+		synchronized (lock) {
+			awaitCapacity(Math.min(bytes, MAX_STAGED_BYTES));
+			for (byte[] record : records) {
+				stage(record);
+			}
+		}
+		appended.addAndGet(records.size());
+	}
+
+	public long getAppendedCount() {
+		return appended.get();
+	}
+
+	/**
+	 * 本次启动以来投递成功的邮件数，包括上次运行遗留、本次重新投递的邮件。
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * 停止接收新邮件，把暂存区写盘，然后最多等待 timeoutMillis 让发送线程投递完已落盘的邮件；
+	 * 没来得及投递的留在磁盘上，下次启动继续。
+	 */
+	public void close(long timeoutMillis) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			lock.notifyAll();
+		}
+		writer.join();
+		synchronized (durableSignal) {
+			while (!caughtUp()) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					break;
+				}
+				durableSignal.wait(remaining);
+			}
+			stopSender = true;
+			durableSignal.notifyAll();
+		}
+		sender.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		if (sender.isAlive()) {
+			// 发送线程卡在 transport 上，留给它自己退出；未 ack 的邮件下次启动重新投递
+			System.err.println("In the MailOutbox:sender did not stop within " + timeoutMillis + " ms");
+			return;
+		}
+		if (reading != null) {
+			reading.close();
+		}
+		ackChannel.close();
+		transport.close();
+		System.out.println(String.format("In the MailOutbox:Closed, appended %d, delivered %d, %s", appended.get(),
+				delivered.get(), caughtUp() ? "nothing pending" : "undelivered mails kept on disk"));
+	}
+
+	private boolean caughtUp() {
+		Position position = durable;
+		return cursorSegment == position.segment && cursorOffset >= position.offset;
+	}
+
+	// 调用方持有 lock
+	private void awaitCapacity(int length) {
+		while (!closed && staging.position() > 0 && staging.position() + length > MAX_STAGED_BYTES) {
+			try {
+				lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for mail outbox", e);
+			}
+		}
+		if (closed) {
+			throw new IllegalStateException("mail outbox is closed");
+		}
+	}
+
+	// 调用方持有 lock
+	private void stage(byte[] record) {
+		int before = staging.position();
+		if (staging.remaining() < record.length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(staging.capacity() * 2, before + record.length));
+			staging.flip();
+			larger.put(staging);
+			staging = larger;
+		}
+		staging.put(record);
+		// 空变非空时唤醒写线程开始计时，超过 FLUSH_BYTES 时催它立即写盘
+		if (before == 0 || (before < FLUSH_BYTES && staging.position() >= FLUSH_BYTES)) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * 读 ack 确定发送位置，删除已经投递完的段，创建本次启动的新段。返回待投递的字节数。
+	 */
+	private long recover() throws IOException {
+		List<Long> segments = segmentIds();
+		long ackSegment = 0;
+		long ackOffset = SEGMENT_HEADER_BYTES;
+		if (ackChannel.size() >= ACK_BYTES) {
+			ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES);
+			readFully(ackChannel, ack, 0);
+			CRC32 crc = new CRC32();
+			crc.update(ack.array(), 0, 16);
+			if (ack.getInt(16) == (int) crc.getValue()) {
+				ackSegment = ack.getLong(0);
+				ackOffset = ack.getLong(8);
+			}
+			// 校验失败说明 ack 写到一半，从最老的段开始重新投递
+		}
+		this.segmentId = segments.isEmpty() ? ackSegment + 1 : Math.max(ackSegment, segments.get(segments.size() - 1)) + 1;
+		this.cursorSegment = segmentId;
+		this.cursorOffset = SEGMENT_HEADER_BYTES;
+		for (long id : segments) {
+			if (id < ackSegment) {
+				// 已经投递完、但上次没来得及删除
+				Files.deleteIfExists(segmentPath(id));
+			} else if (cursorSegment == segmentId) {
+				cursorSegment = id;
+				cursorOffset = id == ackSegment ? ackOffset : SEGMENT_HEADER_BYTES;
+			}
+		}
+		long pending = 0;
+		for (long id : segments) {
+			if (id >= cursorSegment) {
+				pending += Files.size(segmentPath(id)) - (id == cursorSegment ? cursorOffset : SEGMENT_HEADER_BYTES);
+			}
+		}
+		this.segment = createSegment(segmentId);
+		this.durable = new Position(segmentId, SEGMENT_HEADER_BYTES);
+		return Math.max(0, pending);
+	}
+
+	private void writeLoop() {
+		boolean last = false;
+		while (!last) {
+			ByteBuffer batch;
+			synchronized (lock) {
+				try {
+					while (!closed && staging.position() == 0) {
+						lock.wait();
+					}
+					// 等一个 flush 间隔，让更多邮件进入同一次 fsync
+					if (!closed && staging.position() < FLUSH_BYTES) {
+						lock.wait(flushIntervalMillis);
+					}
+				} catch (InterruptedException e) {
+					// 不会被中断：close 通过 closed 标志通知
+				}
+				last = closed;
+				batch = staging;
+				staging = spare;
+				lock.notifyAll();
+			}
+			batch.flip();
+			write(batch);
+			batch.clear();
+			spare = batch;
+		}
+		try {
+			segment.close();
+		} catch (IOException e) {
+			System.err.println("In the MailOutbox:failed to close segment " + segmentId + ": " + e);
+		}
+	}
+
+	/**
+	 * 写入并 fsync 一批记录。失败时换一个新段重试：旧段中写了一半的内容会被发送线程当作损坏的尾巴跳过。
+	 */
+	private void write(ByteBuffer batch) {
+		int start = batch.position();
+		while (batch.hasRemaining()) {
+			try {
+				while (batch.hasRemaining()) {
+					segment.write(batch);
+				}
+				segment.force(false);
+				publish(new Position(segmentId, segment.position()));
+				if (segment.position() >= segmentSize) {
+					roll();
+				}
+			} catch (IOException e) {
+				System.err.println("In the MailOutbox:failed to write segment " + segmentId + ": " + e);
+				if (isClosed()) {
+					System.err.println("In the MailOutbox:closing, dropped " + (batch.limit() - start) + " bytes of mails");
+					return;
+				}
+				sleepQuietly(RETRY_MILLIS);
+				batch.position(start);
+				try {
+					roll();
+				} catch (IOException rollFailure) {
+					System.err.println("In the MailOutbox:failed to create segment " + segmentId + ": " + rollFailure);
+				}
+			}
+		}
+	}
+
+	private boolean isClosed() {
+		synchronized (lock) {
+			return closed;
+		}
+	}
+
+	private void roll() throws IOException {
+		try {
+			segment.close();
+		} finally {
+			segmentId++;
+			segment = createSegment(segmentId);
+			publish(new Position(segmentId, SEGMENT_HEADER_BYTES));
+		}
+	}
+
+	private FileChannel createSegment(long id) throws IOException {
+		FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+		header.putInt(MAGIC).putInt(0).putLong(id).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(true);
+		return channel;
+	}
+
+	private void publish(Position position) {
+		synchronized (durableSignal) {
+			durable = position;
+			durableSignal.notifyAll();
+		}
+	}
+
+	private void sendLoop() {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+		List<Mail> batch = new ArrayList<>(batchSize);
+		while (!stopSender) {
+			try {
+				Position position = durable;
+				if (cursorSegment == position.segment && cursorOffset >= position.offset) {
+					awaitDurable(position, 0);
+					continue;
+				}
+				boolean sealed = cursorSegment < position.segment;
+				FileChannel channel = reading();
+				if (channel == null) {
+					// 段文件不存在（创建失败过），直接跳过
+					nextSegment();
+					continue;
+				}
+				long limit = sealed ? channel.size() : position.offset;
+				buffer.clear();
+				buffer.limit((int) Math.max(0, Math.min(buffer.capacity(), limit - cursorOffset)));
+				readFully(channel, buffer, cursorOffset);
+				Mail mail;
+				while (batch.size() < batchSize && (mail = MailRecords.read(buffer)) != null) {
+					batch.add(mail);
+				}
+				if (batch.isEmpty()) {
+					if (sealed) {
+						// 段的末尾（可能是崩溃时写了一半的记录）
+						nextSegment();
+					} else {
+						awaitDurable(position, RETRY_MILLIS);
+					}
+					continue;
+				}
+				if (!deliver(batch)) {
+					break;
+				}
+				delivered.addAndGet(batch.size());
+				batch.clear();
+				writeAck(cursorSegment, cursorOffset + buffer.position());
+			} catch (IOException e) {
+				System.err.println("In the MailOutbox:failed to read segment " + cursorSegment + ": " + e);
+				batch.clear();
+				sleepQuietly(RETRY_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * 投递一批邮件，失败时隔 RETRY_MILLIS 重试直到成功；close 期间放弃时返回 false（这批没有 ack，下次启动重新投递）。
+	 */
+	private boolean deliver(List<Mail> batch) {
+		while (!stopSender) {
+			try {
+				transport.send(batch);
+				return true;
+			} catch (IOException | RuntimeException e) {
+				System.err.println("In the MailOutbox:failed to send " + batch.size() + " mails via " + transport + ": " + e);
+				sleepQuietly(RETRY_MILLIS);
+			}
+		}
+		return false;
+	}
+
+	private void awaitDurable(Position seen, long timeoutMillis) {
+		synchronized (durableSignal) {
+			// 顺便通知 close 中等待发送线程追上的线程
+			durableSignal.notifyAll();
+			if (durable == seen && !stopSender) {
+				try {
+					durableSignal.wait(timeoutMillis);
+				} catch (InterruptedException e) {
+					// 不会被中断：close 通过 stopSender 标志通知
+				}
+			}
+		}
+	}
+
+	private FileChannel reading() throws IOException {
+		if (reading == null) {
+			try {
+				reading = FileChannel.open(segmentPath(cursorSegment), StandardOpenOption.READ);
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}
+		return reading;
+	}
+
+	/**
+	 * 当前段已经投递完：先把 ack 推进到下一段再删除文件，崩溃在两步之间时重启会删除它。
+	 */
+	private void nextSegment() throws IOException {
+		long finished = cursorSegment;
+		if (reading != null) {
+			reading.close();
+			reading = null;
+		}
+		writeAck(finished + 1, SEGMENT_HEADER_BYTES);
+		Files.deleteIfExists(segmentPath(finished));
+	}
+
+	private void writeAck(long segment, long offset) throws IOException {
+		ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES);
+		ack.putLong(segment).putLong(offset);
+		CRC32 crc = new CRC32();
+		crc.update(ack.array(), 0, 16);
+		ack.putInt((int) crc.getValue()).flip();
+		int position = 0;
+		while (ack.hasRemaining()) {
+			position += ackChannel.write(ack, position);
+		}
+		ackChannel.force(false);
+		synchronized (durableSignal) {
+			cursorSegment = segment;
+			cursorOffset = offset;
+			durableSignal.notifyAll();
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private List<Long> segmentIds() throws IOException {
+		List<Long> ids = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// 不是本类写的文件，忽略
+				}
+			}
+		}
+		ids.sort(null);
+		return ids;
+	}
+
+	private Path segmentPath(long id) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+	}
+
+	private static final class Position {
+		final long segment;
+		final long offset;
+
+		Position(long segment, long offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+	}
+}
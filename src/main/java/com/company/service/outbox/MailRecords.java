@@ -0,0 +1,101 @@
+package com.company.service.outbox;
+
+import com.company.service.Mail;
+import com.company.service.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * outbox 段文件中的邮件记录编码：
+ * <pre>
+ * int length | int crc32(payload) | payload = byte kind, long timestamp, long userId, (int len, UTF-8 bytes) x email / name
+ * </pre>
+ * 只保存渲染邮件需要的字段，不保存密码。
+ */
+final class MailRecords {
+
+	static final int HEADER_BYTES = 8;
+	// 单条记录的上限，保证发送线程的读缓冲区一定放得下一条完整记录
+	static final int MAX_RECORD_BYTES = 64 * 1024;
+
+	private static final int FIXED_PAYLOAD_BYTES = 1 + 8 + 8 + 4 + 4;
+	private static final Mail.Kind[] KINDS = Mail.Kind.values();
+
+	private MailRecords() {
+	}
+
+	/**
+	 * 编码一条完整记录（含长度和校验和）。在调用方线程、加锁之前执行。
+	 */
+	static byte[] encode(Mail mail) {
+		byte[] email = mail.getUser().getEmail().getBytes(StandardCharsets.UTF_8);
+		byte[] name = mail.getUser().getName().getBytes(StandardCharsets.UTF_8);
+		int payloadLength = FIXED_PAYLOAD_BYTES + email.length + name.length;
+		if (HEADER_BYTES + payloadLength > MAX_RECORD_BYTES) {
+			throw new IllegalArgumentException("mail record of " + (HEADER_BYTES + payloadLength)
+					+ " bytes exceeds " + MAX_RECORD_BYTES + " bytes");
+		}
+		byte[] record = new byte[HEADER_BYTES + payloadLength];
+		ByteBuffer out = ByteBuffer.wrap(record);
+		out.putInt(payloadLength);
+		out.putInt(0);
+		out.put((byte) mail.getKind().ordinal());
+		out.putLong(mail.getTimestamp());
+		out.putLong(mail.getUser().getId());
+		out.putInt(email.length);
+		out.put(email);
+		out.putInt(name.length);
+		out.put(name);
+		CRC32 crc = new CRC32();
+		crc.update(record, HEADER_BYTES, payloadLength);
+		out.putInt(4, (int) crc.getValue());
+		return record;
+	}
+
+	/**
+	 * 从 in 的当前位置读一条记录；剩余字节不足一条记录、或记录损坏（写到一半时崩溃）返回 null，且不移动 position。
+	 */
+	static Mail read(ByteBuffer in) {
+		int start = in.position();
+		if (in.remaining() < HEADER_BYTES) {
+			return null;
+		}
+		int payloadLength = in.getInt(start);
+		int crc = in.getInt(start + 4);
+		if (payloadLength < FIXED_PAYLOAD_BYTES || payloadLength > in.remaining() - HEADER_BYTES) {
+			return null;
+		}
+		ByteBuffer payload = in.duplicate();
+		payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + payloadLength);
+		CRC32 actual = new CRC32();
+		actual.update(payload.duplicate());
+		if ((int) actual.getValue() != crc) {
+			return null;
+		}
+		int kind = payload.get();
+		long timestamp = payload.getLong();
+		long userId = payload.getLong();
+		String email = readString(payload);
+		String name = readString(payload);
+		if (kind < 0 || kind >= KINDS.length || email == null || name == null) {
+			return null;
+		}
+		in.position(start + HEADER_BYTES + payloadLength);
+		return new Mail(KINDS[kind], new User(userId, email, null, name), timestamp);
+	}
+
+	private static String readString(ByteBuffer payload) {
+		if (payload.remaining() < 4) {
+			return null;
+		}
+		int length = payload.getInt();
+		if (length < 0 || length > payload.remaining()) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,20 @@
+package com.company.service.outbox;
+
+import com.company.service.Mail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 真正把邮件发出去的通道。MailOutbox 的发送线程成批调用 send，返回即视为已投递；
+ * 抛出异常时这一批会在稍后整体重试，所以实现需要容忍重复投递（at-least-once）。
+ */
+public interface MailTransport extends Closeable {
+
+	void send(List<Mail> mails) throws IOException;
+
+	@Override
+	default void close() throws IOException {
+	}
+}
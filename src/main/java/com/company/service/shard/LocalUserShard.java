@@ -0,0 +1,110 @@
+package com.company.service.shard;
+
+import com.company.service.User;
+import com.company.service.UserRepository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 进程内的分片，数据放在一个普通的 UserRepository（heap 或 compact）中。也是 UserShardServer 在服务端使用的分片。
+ */
+public class LocalUserShard implements UserShard {
+
+	private final UserRepository repository;
+
+	public LocalUserShard(UserRepository repository) {
+		this.repository = repository;
+	}
+
+	@Override
+	public User findById(long id) {
+		return repository.findById(id);
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		return repository.findByEmail(email);
+	}
+
+	@Override
+	public User[] findByIds(long[] ids) {
+		User[] users = new User[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			users[i] = repository.findById(ids[i]);
+		}
+		return users;
+	}
+
+	@Override
+	public boolean[] addAll(List<User> users) {
+		boolean[] added = new boolean[users.size()];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = repository.add(users.get(i));
+		}
+		return added;
+	}
+
+	@Override
+	public void removeAll(List<User> users) {
+		// 远程传过来的是副本，按 id 找到分片里的对象，再一次性删除（compact 存储只加一次写锁）
+		List<User> stored = new ArrayList<>(users.size());
+		for (User user : users) {
+			User found = repository.findById(user.getId());
+			if (found != null) {
+				stored.add(found);
+			}
+		}
+		repository.removeAll(stored);
+	}
+
+	@Override
+	public User updatePassword(User user, String password) {
+		return repository.updatePassword(user, password);
+	}
+
+	@Override
+	public List<User> findAll() {
+		return new ArrayList<>(repository.findAll());
+	}
+
+	/**
+	 * 扫描一遍，只保留 id 最小的 limit 个。
+	 */
+	@Override
+	public List<User> findPage(long afterId, int limit) {
+		PriorityQueue<User> smallest = new PriorityQueue<>(Comparator.comparingLong(User::getId).reversed());
+		for (User user : repository.findAll()) {
+			if (user.getId() > afterId) {
+				smallest.add(user);
+				if (smallest.size() > limit) {
+					smallest.poll();
+				}
+			}
+		}
+		List<User> page = new ArrayList<>(smallest);
+		page.sort(Comparator.comparingLong(User::getId));
+		return page;
+	}
+
+	@Override
+	public long maxId() {
+		long max = 0;
+		for (User user : repository.findAll()) {
+			max = Math.max(max, user.getId());
+		}
+		return max;
+	}
+
+	@Override
+	public int size() {
+		return repository.size();
+	}
+
+	@Override
+	public String toString() {
+		return "local";
+	}
+}
@@ -0,0 +1,372 @@
+package com.company.service.shard;
+
+import com.company.service.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通过 socket 访问 UserShardServer 上的分片。
+ * <p>
+ * 每个分片一条连接，请求是流水线式的：调用方线程在 writeLock 下把请求写进连接的输出缓冲区、登记到 inFlight 队列，
+ * 然后在锁外等待自己的响应，不必等前面请求的响应回来。多个线程同时发请求时，只有最后一个写完的线程 flush，
+ * 这些请求合并成一次发送；每条连接有一个读线程，按 inFlight 的顺序把响应交给各个调用方。
+ * 批量请求超过 ShardProtocol.MAX_BATCH 时拆成多个请求，一起发出后再等待。
+ * <p>
+ * 建立连接时先用共享密钥完成握手。连接出错时关闭，所有等待中的请求抛出 UncheckedIOException，
+ * 下一次请求重新连接；不自动重试（写请求可能已经执行）。服务端处理失败（ERROR）时抛出 IllegalStateException，连接仍然可用。
+ */
+public class RemoteUserShard implements UserShard {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+	private final InetSocketAddress address;
+	private final byte[] secret;
+	// 保护 connection 的切换，以及往连接上写请求
+	private final Object writeLock = new Object();
+	// 已经开始发送、还没写完的请求数；写完后减到 0 的线程负责 flush
+	private final AtomicInteger pendingWriters = new AtomicInteger();
+	private Connection connection;
+
+	public RemoteUserShard(InetSocketAddress address, byte[] secret) {
+		this.address = address;
+		this.secret = secret.clone();
+	}
+
+	@Override
+	public User findById(long id) {
+		return await(send(ShardProtocol.FIND_BY_ID, out -> out.writeLong(id), ShardProtocol::readUser));
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		return await(send(ShardProtocol.FIND_BY_EMAIL, out -> out.writeUTF(email), ShardProtocol::readUser));
+	}
+
+	@Override
+	public User[] findByIds(long[] ids) {
+		List<Call<User[]>> calls = new ArrayList<>();
+		for (int from = 0; from < ids.length; from += ShardProtocol.MAX_BATCH) {
+			long[] part = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + ShardProtocol.MAX_BATCH));
+			calls.add(send(ShardProtocol.FIND_BY_IDS, out -> {
+				out.writeInt(part.length);
+				for (long id : part) {
+					out.writeLong(id);
+				}
+			}, in -> {
+				User[] users = new User[part.length];
+				for (int i = 0; i < users.length; i++) {
+					users[i] = ShardProtocol.readUser(in);
+				}
+				return users;
+			}));
+		}
+		User[] users = new User[ids.length];
+		int position = 0;
+		for (Call<User[]> call : calls) {
+			User[] part = await(call);
+			System.arraycopy(part, 0, users, position, part.length);
+			position += part.length;
+		}
+		return users;
+	}
+
+	@Override
+	public boolean[] addAll(List<User> users) {
+		List<Call<boolean[]>> calls = new ArrayList<>();
+		for (List<User> part : parts(users)) {
+			calls.add(send(ShardProtocol.ADD_ALL, out -> writeUsers(out, part), in -> {
+				boolean[] added = new boolean[part.size()];
+				for (int i = 0; i < added.length; i++) {
+					added[i] = in.readBoolean();
+				}
+				return added;
+			}));
+		}
+		boolean[] added = new boolean[users.size()];
+		int position = 0;
+		for (Call<boolean[]> call : calls) {
+			boolean[] part = await(call);
+			System.arraycopy(part, 0, added, position, part.length);
+			position += part.length;
+		}
+		return added;
+	}
+
+	@Override
+	public void removeAll(List<User> users) {
+		List<Call<Void>> calls = new ArrayList<>();
+		for (List<User> part : parts(users)) {
+			calls.add(send(ShardProtocol.REMOVE_ALL, out -> writeUsers(out, part), in -> null));
+		}
+		for (Call<Void> call : calls) {
+			await(call);
+		}
+	}
+
+	@Override
+	public User updatePassword(User user, String password) {
+		return await(send(ShardProtocol.UPDATE_PASSWORD, out -> {
+			ShardProtocol.writeUser(out, user);
+			out.writeUTF(password);
+		}, ShardProtocol::readUser));
+	}
+
+	@Override
+	public List<User> findAll() {
+		return await(send(ShardProtocol.FIND_ALL, out -> {
+		}, in -> {
+			int n = in.readInt();
+			if (n < 0) {
+				throw new IOException("negative user count " + n);
+			}
+			List<User> users = new ArrayList<>(Math.min(n, ShardProtocol.MAX_BATCH));
+			for (int i = 0; i < n; i++) {
+				users.add(ShardProtocol.readUser(in));
+			}
+			return users;
+		}));
+	}
+
+	/**
+	 * limit 超过 ShardProtocol.MAX_BATCH 时按 MAX_BATCH 取。
+	 */
+	@Override
+	public List<User> findPage(long afterId, int limit) {
+		int n = Math.min(limit, ShardProtocol.MAX_BATCH);
+		return await(send(ShardProtocol.FIND_PAGE, out -> {
+			out.writeLong(afterId);
+			out.writeInt(n);
+		}, in -> {
+			int count = in.readInt();
+			if (count < 0 || count > n) {
+				throw new IOException("page size " + count + " is out of range [0, " + n + "]");
+			}
+			List<User> users = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				users.add(ShardProtocol.readUser(in));
+			}
+			return users;
+		}));
+	}
+
+	@Override
+	public long maxId() {
+		return await(send(ShardProtocol.MAX_ID, out -> {
+		}, DataInputStream::readLong));
+	}
+
+	@Override
+	public int size() {
+		return await(send(ShardProtocol.SIZE, out -> {
+		}, DataInputStream::readInt));
+	}
+
+	@Override
+	public void close() throws IOException {
+		Connection closing;
+		synchronized (writeLock) {
+			closing = connection;
+			connection = null;
+		}
+		if (closing != null) {
+			// 读线程随即因 socket 关闭而退出，并让等待中的请求失败
+			closing.socket.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "remote:" + address;
+	}
+
+	/**
+	 * 写出一个请求并登记等待响应，不等响应返回。
+	 */
+	private <T> Call<T> send(byte op, Request request, Response<T> response) {
+		Call<T> call = new Call<>(response);
+		pendingWriters.incrementAndGet();
+		Connection current = null;
+		Exception failure = null;
+		synchronized (writeLock) {
+			try {
+				current = connect();
+				// 先登记再写：响应可能在写完之前就被读线程读到
+				current.inFlight.add(call);
+				current.out.writeByte(op);
+				request.writeTo(current.out);
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			}
+			if (failure != null && connection == current) {
+				connection = null;
+			}
+			// 还有线程在等着写时由它们 flush，这样同时到达的请求合并成一次发送
+			if (pendingWriters.decrementAndGet() == 0 && failure == null) {
+				try {
+					current.out.flush();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			// 请求可能只写了一半，这条连接不能再用
+			UncheckedIOException error = new UncheckedIOException("shard " + address + " request failed",
+					failure instanceof IOException ? (IOException) failure : new IOException(failure));
+			if (current != null) {
+				fail(current, error);
+			}
+			call.future.completeExceptionally(error);
+		}
+		return call;
+	}
+
+	private <T> T await(Call<T> call) {
+		try {
+			return call.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for shard " + address, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	// 调用方持有 writeLock
+	private Connection connect() throws IOException {
+		if (connection == null) {
+			Socket socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+				Connection opened = new Connection(socket);
+				ShardProtocol.answerChallenge(opened.in, opened.out, secret);
+				Thread reader = new Thread(() -> readLoop(opened), "remote-user-shard-" + address.getPort());
+				reader.setDaemon(true);
+				reader.start();
+				connection = opened;
+			} catch (IOException | RuntimeException e) {
+				socket.close();
+				throw e;
+			}
+		}
+		return connection;
+	}
+
+	private void readLoop(Connection connection) {
+		Call<?> call = null;
+		try {
+			while (true) {
+				byte status = connection.in.readByte();
+				call = connection.inFlight.poll();
+				if (call == null) {
+					throw new IOException("unexpected response from shard " + address);
+				}
+				if (status == ShardProtocol.OK) {
+					complete(call, connection.in);
+				} else {
+					call.future.completeExceptionally(
+							new IllegalStateException("shard " + address + " failed: " + connection.in.readUTF()));
+				}
+				call = null;
+			}
+		} catch (IOException e) {
+			UncheckedIOException error = new UncheckedIOException("shard " + address + " request failed", e);
+			if (call != null) {
+				call.future.completeExceptionally(error);
+			}
+			fail(connection, error);
+		}
+	}
+
+	private static <T> void complete(Call<T> call, DataInputStream in) throws IOException {
+		call.future.complete(call.response.read(in));
+	}
+
+	/**
+	 * 关闭出错的连接，让它上面所有等待中的请求失败；之后的请求会重新连接。
+	 */
+	private void fail(Connection failed, UncheckedIOException error) {
+		synchronized (writeLock) {
+			if (connection == failed) {
+				connection = null;
+			}
+		}
+		// 从这里开始不会再有请求登记到 failed 上
+		try {
+			failed.socket.close();
+		} catch (IOException ignored) {
+			// 连接已经不可用
+		}
+		Call<?> call;
+		while ((call = failed.inFlight.poll()) != null) {
+			call.future.completeExceptionally(error);
+		}
+	}
+
+	private static List<List<User>> parts(List<User> users) {
+		List<List<User>> parts = new ArrayList<>();
+		for (int from = 0; from < users.size(); from += ShardProtocol.MAX_BATCH) {
+			parts.add(users.subList(from, Math.min(users.size(), from + ShardProtocol.MAX_BATCH)));
+		}
+		return parts;
+	}
+
+	private static void writeUsers(DataOutputStream request, List<User> users) throws IOException {
+		request.writeInt(users.size());
+		for (User user : users) {
+			ShardProtocol.writeUser(request, user);
+		}
+	}
+
+	private static final class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		// 已经发出、还没收到响应的请求，按发送顺序排列
+		final Queue<Call<?>> inFlight = new ConcurrentLinkedQueue<>();
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+
+	private static final class Call<T> {
+		final Response<T> response;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		Call(Response<T> response) {
+			this.response = response;
+		}
+	}
+
+	@FunctionalInterface
+	private interface Request {
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface Response<T> {
+		T read(DataInputStream in) throws IOException;
+	}
+}
@@ -0,0 +1,115 @@
+package com.company.service.shard;
+
+import com.company.service.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * RemoteUserShard 与 UserShardServer 之间的请求/响应协议，基于 DataInput/DataOutput：
+ * <pre>
+ * 握手：服务端发 int HANDSHAKE_MAGIC, byte[NONCE_BYTES] nonce；客户端回 HMAC-SHA256(共享密钥, nonce)；
+ *       服务端回 byte status（OK / ERROR），ERROR 后跟 UTF 错误信息并断开
+ * 请求：byte op, 参数
+ * 响应：byte status（OK / ERROR）, 结果；ERROR 后跟 UTF 错误信息
+ * User：boolean present, long id, UTF email, UTF password, UTF name
+ * </pre>
+ * 同一条连接上可以连续发送多个请求（流水线），服务端按顺序处理，响应按请求的顺序返回。
+ * 请求中的数量（int n）不能超过 MAX_BATCH，服务端读到越界的数量时直接断开连接，不按它分配内存。
+ * <p>
+ * 握手只认证连接的对端持有共享密钥，之后的数据是明文，不防窃听和篡改，只应在可信的网络中使用。
+ */
+final class ShardProtocol {
+
+	static final byte FIND_BY_ID = 1; // long id -> User
+	static final byte FIND_BY_EMAIL = 2; // UTF email -> User
+	static final byte FIND_BY_IDS = 3; // int n, long x n -> User x n
+	static final byte ADD_ALL = 4; // int n, User x n -> boolean x n
+	static final byte REMOVE_ALL = 5; // int n, User x n -> (无)
+	static final byte FIND_ALL = 6; // -> int n, User x n
+	static final byte SIZE = 7; // -> int
+	static final byte UPDATE_PASSWORD = 8; // User, UTF password -> User
+	static final byte FIND_PAGE = 9; // long afterId, int limit -> int n, User x n
+	static final byte MAX_ID = 10; // -> long
+
+	static final byte OK = 0;
+	static final byte ERROR = 1;
+
+	static final int MAX_BATCH = 65536;
+
+	static final int HANDSHAKE_MAGIC = 0x55534850; // "USHP"
+	static final int NONCE_BYTES = 16;
+	static final int MAC_BYTES = 32;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private ShardProtocol() {
+	}
+
+	static void writeUser(DataOutputStream out, User user) throws IOException {
+		out.writeBoolean(user != null);
+		if (user != null) {
+			out.writeLong(user.getId());
+			out.writeUTF(user.getEmail());
+			out.writeUTF(user.getPassword());
+			out.writeUTF(user.getName());
+		}
+	}
+
+	static User readUser(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		return new User(in.readLong(), in.readUTF(), in.readUTF(), in.readUTF());
+	}
+
+	/**
+	 * 读请求中的数量，超出 [0, MAX_BATCH] 时抛出 IOException。
+	 */
+	static int readCount(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0 || n > MAX_BATCH) {
+			throw new IOException("batch size " + n + " is out of range [0, " + MAX_BATCH + "]");
+		}
+		return n;
+	}
+
+	/**
+	 * 客户端一侧的握手：读服务端的 challenge，用共享密钥回答，服务端拒绝时抛出 IOException。
+	 */
+	static void answerChallenge(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		if (in.readInt() != HANDSHAKE_MAGIC) {
+			throw new IOException("peer is not a user shard server");
+		}
+		byte[] nonce = new byte[NONCE_BYTES];
+		in.readFully(nonce);
+		out.write(mac(secret, nonce));
+		out.flush();
+		if (in.readByte() != OK) {
+			throw new IOException("handshake rejected: " + in.readUTF());
+		}
+	}
+
+	static byte[] mac(byte[] secret, byte[] nonce) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+			return mac.doFinal(nonce);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+		}
+	}
+
+	/**
+	 * 进程内 loopback 分片使用的随机密钥。
+	 */
+	static byte[] newSecret() {
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		return secret;
+	}
+}
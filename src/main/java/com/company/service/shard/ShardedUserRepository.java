@@ -0,0 +1,507 @@
+package com.company.service.shard;
+
+import com.company.service.User;
+import com.company.service.UserRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 把用户按 email 分到多个 UserShard 上的 UserRepository。
+ * <p>
+ * 路由：
+ * <ul>
+ * <li>email：对 foldEmail(email) 做一致性哈希，每个分片在环上有 VIRTUAL_NODES 个虚拟节点，同一个 email 总是落在同一个分片，
+ * 所以 email 唯一性由该分片自己保证；</li>
+ * <li>id：id 由本类统一分配，shardOfId 记录每个 id 所在的分片；批量按 id 查询时先按分片分组，每个分片只发一次请求。</li>
+ * </ul>
+ * 只支持一个协调者：id 序列和 shardOfId 都只在本实例的内存中，两个 ShardedUserRepository 连接同一组远程分片时
+ * 会分配出重复的 id，也看不到对方写入的用户。
+ * <p>
+ * 读操作不加锁。写操作持有 rebalanceLock 的读锁，addShard 持有写锁，因此加分片期间写操作暂停。
+ * 一致性哈希保证加分片时只有落到新分片上的那部分用户需要迁移（约 1/N）。
+ * 迁移顺序是：先复制到新分片，再更新 shardOfId 并切换哈希环，最后从旧分片删除，所以迁移期间的读总能找到用户。
+ * 启动和迁移时按 id 分页（每页 ShardProtocol.MAX_BATCH 个）遍历分片，协调者内存中同时只有一页用户。
+ */
+public class ShardedUserRepository implements UserRepository, Closeable {
+
+	private static final int VIRTUAL_NODES = 128;
+	// 迁移时每个批量请求携带的用户数
+	private static final int MIGRATION_BATCH = 1000;
+
+	private final List<UserShard> shards = new CopyOnWriteArrayList<>();
+	// 哈希值 -> 分片下标，整体替换
+	private volatile NavigableMap<Integer, Integer> ring = new TreeMap<>();
+	private final ConcurrentMap<Long, Integer> shardOfId = new ConcurrentHashMap<>();
+	private final AtomicLong idSequence = new AtomicLong();
+	private final ReentrantReadWriteLock rebalanceLock = new ReentrantReadWriteLock();
+
+	/**
+	 * 用一组分片创建，分片中已有的用户（协调者重启前留下的）会登记到 shardOfId，id 序列从各分片最大的 id 之后继续。
+	 */
+	public ShardedUserRepository(List<? extends UserShard> initialShards) {
+		if (initialShards.isEmpty()) {
+			throw new IllegalArgumentException("at least one shard is required");
+		}
+		shards.addAll(initialShards);
+		ring = buildRing(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			int index = i;
+			advanceSequence(shards.get(i).maxId());
+			forEachPage(shards.get(i), page -> {
+				for (User user : page) {
+					shardOfId.put(user.getId(), index);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 按 app.users.shard-transport 创建 count 个分片，每个分片的数据放在 storage 新建的 UserRepository 中：
+	 * local 直接在进程内访问；loopback 为每个分片在 127.0.0.1 上启动一个 UserShardServer，通过 socket 访问。
+	 */
+	public static ShardedUserRepository create(int count, String transport, Supplier<UserRepository> storage)
+			throws IOException {
+		List<UserShard> shards = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			shards.add(newShard(transport, storage));
+		}
+		return new ShardedUserRepository(shards);
+	}
+
+	/**
+	 * 连接已经在运行的 UserShardServer，addresses 为逗号分隔的 host:port，secret 是与服务端相同的共享密钥。
+	 * 同一组分片同时只能由一个协调者连接。
+	 */
+	public static ShardedUserRepository remote(String addresses, byte[] secret) {
+		List<UserShard> shards = new ArrayList<>();
+		for (String address : addresses.split(",")) {
+			String trimmed = address.trim();
+			int colon = trimmed.lastIndexOf(':');
+			if (colon <= 0) {
+				throw new IllegalArgumentException("shard address must be host:port: " + trimmed);
+			}
+			shards.add(new RemoteUserShard(new InetSocketAddress(trimmed.substring(0, colon),
+					Integer.parseInt(trimmed.substring(colon + 1))), secret));
+		}
+		return new ShardedUserRepository(shards);
+	}
+
+	public static UserShard newShard(String transport, Supplier<UserRepository> storage) throws IOException {
+		LocalUserShard local = new LocalUserShard(storage.get());
+		if ("local".equals(transport)) {
+			return local;
+		}
+		if ("loopback".equals(transport)) {
+			// 服务端和客户端在同一个进程里，每个分片用一个随机密钥
+			byte[] secret = ShardProtocol.newSecret();
+			return new LoopbackUserShard(UserShardServer.loopback(local, secret), secret);
+		}
+		throw new IllegalArgumentException("unknown app.users.shard-transport: " + transport);
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	@Override
+	public User findById(long id) {
+		Integer shard = shardOfId.get(id);
+		return shard == null ? null : shards.get(shard).findById(id);
+	}
+
+	@Override
+	public User findByEmail(String email) {
+		return email == null ? null : shards.get(shardOf(UserRepository.foldEmail(email))).findByEmail(email);
+	}
+
+	@Override
+	public User[] findAllById(long[] ids) {
+		int shardCount = shards.size();
+		int[] shardOfIndex = new int[ids.length];
+		int[] counts = new int[shardCount];
+		User[] users = new User[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			Integer shard = shardOfId.get(ids[i]);
+			if (shard == null) {
+				shardOfIndex[i] = -1;
+			} else if (shard >= shardCount) {
+				// 读取 shards.size() 之后刚迁移到新分片的用户，单独查询
+				shardOfIndex[i] = -1;
+				users[i] = shards.get(shard).findById(ids[i]);
+			} else {
+				shardOfIndex[i] = shard;
+				counts[shard]++;
+			}
+		}
+		for (int shard = 0; shard < shardCount; shard++) {
+			if (counts[shard] == 0) {
+				continue;
+			}
+			long[] shardIds = new long[counts[shard]];
+			int[] positions = new int[counts[shard]];
+			int n = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (shardOfIndex[i] == shard) {
+					shardIds[n] = ids[i];
+					positions[n++] = i;
+				}
+			}
+			User[] found = shards.get(shard).findByIds(shardIds);
+			for (int i = 0; i < n; i++) {
+				users[positions[i]] = found[i];
+			}
+		}
+		return users;
+	}
+
+	@Override
+	public User create(String email, String password, String name) {
+		rebalanceLock.readLock().lock();
+		try {
+			User user = new User(idSequence.incrementAndGet(), email, password, name);
+			int shard = shardOf(UserRepository.foldEmail(email));
+			shardOfId.put(user.getId(), shard);
+			if (!shards.get(shard).addAll(Collections.singletonList(user))[0]) {
+				shardOfId.remove(user.getId(), shard);
+				return null;
+			}
+			return user;
+		} finally {
+			rebalanceLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean add(User user) {
+		rebalanceLock.readLock().lock();
+		try {
+			int shard = shardOf(UserRepository.foldEmail(user.getEmail()));
+			// id 要在所有分片中唯一，分片自己只能检查本分片
+			if (shardOfId.putIfAbsent(user.getId(), shard) != null) {
+				return false;
+			}
+			if (!shards.get(shard).addAll(Collections.singletonList(user))[0]) {
+				shardOfId.remove(user.getId(), shard);
+				return false;
+			}
+			advanceSequence(user.getId());
+			return true;
+		} finally {
+			rebalanceLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(User user) {
+		rebalanceLock.readLock().lock();
+		try {
+			Integer shard = shardOfId.get(user.getId());
+			if (shard != null) {
+				shards.get(shard).removeAll(Collections.singletonList(user));
+				shardOfId.remove(user.getId(), shard);
+			}
+		} finally {
+			rebalanceLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public User updatePassword(User user, String password) {
+		rebalanceLock.readLock().lock();
+		try {
+			Integer shard = shardOfId.get(user.getId());
+			return shard == null ? null : shards.get(shard).updatePassword(user, password);
+		} finally {
+			rebalanceLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 按分片分组，每个分片按 MIGRATION_BATCH 一批发送。
+	 */
+	@Override
+	public void removeAll(Collection<User> users) {
+		rebalanceLock.readLock().lock();
+		try {
+			Map<Integer, List<User>> byShard = new HashMap<>();
+			for (User user : users) {
+				Integer shard = shardOfId.get(user.getId());
+				if (shard != null) {
+					byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(user);
+				}
+			}
+			for (Map.Entry<Integer, List<User>> entry : byShard.entrySet()) {
+				for (List<User> batch : batches(entry.getValue())) {
+					shards.get(entry.getKey()).removeAll(batch);
+				}
+				for (User user : entry.getValue()) {
+					shardOfId.remove(user.getId(), entry.getKey());
+				}
+			}
+		} finally {
+			rebalanceLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 所有分片用户的副本（远程分片需要整体传输一次）。
+	 */
+	@Override
+	public Collection<User> findAll() {
+		List<User> users = new ArrayList<>();
+		for (UserShard shard : shards) {
+			users.addAll(shard.findAll());
+		}
+		return Collections.unmodifiableList(users);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (UserShard shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	/**
+	 * 加入一个新分片，并把哈希环上归它所有的用户从其他分片迁移过来。迁移期间写操作等待，读操作不受影响。
+	 * 复制到新分片的过程中失败时，从新分片删除已经复制过去的用户后抛出异常，仓库保持加分片之前的状态。
+	 */
+	public void addShard(UserShard shard) {
+		rebalanceLock.writeLock().lock();
+		try {
+			long start = System.nanoTime();
+			int index = shards.size();
+			NavigableMap<Integer, Integer> next = buildRing(index + 1);
+			// 一致性哈希：环上只有新分片的虚拟节点接管了区间，需要迁移的用户全部去往新分片。
+			// 只记住迁移的 id；写操作在等写锁，旧分片的内容不会变，删除时再按页遍历一次
+			Set<Long> moved = new HashSet<>();
+			copy(shard, moved, page -> movingTo(next, index, page));
+			shards.add(shard);
+			for (Long id : moved) {
+				shardOfId.put(id, index);
+			}
+			ring = next;
+			for (int i = 0; i < index; i++) {
+				UserShard old = shards.get(i);
+				forEachPage(old, page -> {
+					for (List<User> batch : batches(movingTo(next, index, page))) {
+						old.removeAll(batch);
+					}
+				});
+			}
+			System.out.println(String.format("In the ShardedUserRepository:Added shard %d (%s), moved %d users in %d ms",
+					index, shard, moved.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} finally {
+			rebalanceLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 按页遍历现有分片，把 moving 选出的用户复制到新分片，复制成功的 id 记入 copied；失败时撤销已经复制的部分。
+	 * 此时哈希环和 shardOfId 都还没有改，读写都不会访问新分片。
+	 */
+	private void copy(UserShard shard, Set<Long> copied, Function<List<User>, List<User>> moving) {
+		try {
+			for (UserShard old : shards) {
+				forEachPage(old, page -> {
+					for (List<User> batch : batches(moving.apply(page))) {
+						boolean[] added;
+						try {
+							added = shard.addAll(batch);
+						} catch (RuntimeException e) {
+							// 结果未知（例如远程请求中途断开），这一批也要撤销
+							for (User user : batch) {
+								copied.add(user.getId());
+							}
+							throw e;
+						}
+						User conflict = null;
+						for (int i = 0; i < added.length; i++) {
+							if (added[i]) {
+								copied.add(batch.get(i).getId());
+							} else if (conflict == null) {
+								conflict = batch.get(i);
+							}
+						}
+						if (conflict != null) {
+							throw new IllegalStateException("user " + conflict.getId() + " already exists on the new shard");
+						}
+					}
+				});
+			}
+		} catch (RuntimeException e) {
+			try {
+				// 新分片上原有的用户不在 copied 中，保留
+				forEachPage(shard, page -> {
+					List<User> undo = new ArrayList<>();
+					for (User user : page) {
+						if (copied.contains(user.getId())) {
+							undo.add(user);
+						}
+					}
+					for (List<User> batch : batches(undo)) {
+						shard.removeAll(batch);
+					}
+				});
+			} catch (RuntimeException rollbackFailure) {
+				e.addSuppressed(rollbackFailure);
+			}
+			System.err.println("In the ShardedUserRepository:failed to add shard " + shard + ", rolled back "
+					+ copied.size() + " copied users: " + e);
+			throw e;
+		}
+	}
+
+	/**
+	 * page 中在新的哈希环 next 上归分片 index 所有的用户。
+	 */
+	private static List<User> movingTo(NavigableMap<Integer, Integer> next, int index, List<User> page) {
+		List<User> users = new ArrayList<>();
+		for (User user : page) {
+			if (owner(next, UserRepository.foldEmail(user.getEmail())) == index) {
+				users.add(user);
+			}
+		}
+		return users;
+	}
+
+	/**
+	 * 按 id 分页遍历分片，每页最多 ShardProtocol.MAX_BATCH 个用户；遍历期间分片不能有其他写入。
+	 */
+	private static void forEachPage(UserShard shard, Consumer<List<User>> action) {
+		long afterId = Long.MIN_VALUE;
+		while (true) {
+			List<User> page = shard.findPage(afterId, ShardProtocol.MAX_BATCH);
+			if (page.isEmpty()) {
+				return;
+			}
+			action.accept(page);
+			afterId = page.get(page.size() - 1).getId();
+		}
+	}
+
+	/**
+	 * 各分片的用户数，用于观察分布是否均匀。
+	 */
+	public int[] shardSizes() {
+		int[] sizes = new int[shards.size()];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = shards.get(i).size();
+		}
+		return sizes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (UserShard shard : shards) {
+			try {
+				shard.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private int shardOf(String foldedEmail) {
+		return owner(ring, foldedEmail);
+	}
+
+	private static int owner(NavigableMap<Integer, Integer> ring, String foldedEmail) {
+		Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(foldedEmail.hashCode()));
+		return (entry != null ? entry : ring.firstEntry()).getValue();
+	}
+
+	private static NavigableMap<Integer, Integer> buildRing(int shardCount) {
+		NavigableMap<Integer, Integer> ring = new TreeMap<>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int node = 0; node < VIRTUAL_NODES; node++) {
+				// 虚拟节点只由分片下标决定，重启后环不变；极少数冲突时先到者保留
+				ring.putIfAbsent(hash(("shard-" + shard + "#" + node).hashCode()), shard);
+			}
+		}
+		return ring;
+	}
+
+	/**
+	 * String.hashCode 对相近的字符串分布很差，用 MurmurHash3 的 fmix32 打散。
+	 */
+	private static int hash(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static List<List<User>> batches(List<User> users) {
+		List<List<User>> batches = new ArrayList<>();
+		for (int from = 0; from < users.size(); from += MIGRATION_BATCH) {
+			batches.add(users.subList(from, Math.min(users.size(), from + MIGRATION_BATCH)));
+		}
+		return batches;
+	}
+
+	private void advanceSequence(long id) {
+		long current;
+		while ((current = idSequence.get()) < id) {
+			if (idSequence.compareAndSet(current, id)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 通过 socket 访问同一进程内 UserShardServer 的分片，关闭时连同服务端一起关闭。
+	 */
+	private static final class LoopbackUserShard extends RemoteUserShard {
+
+		private final UserShardServer server;
+
+		LoopbackUserShard(UserShardServer server, byte[] secret) {
+			super(server.getAddress(), secret);
+			this.server = server;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				server.close();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "loopback:" + server.getPort();
+		}
+	}
+}
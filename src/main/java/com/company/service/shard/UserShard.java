@@ -0,0 +1,54 @@
+package com.company.service.shard;
+
+import com.company.service.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 一个分片：保存 email 落在它哈希区间内的用户。ShardedUserRepository 只通过这个接口访问分片，
+ * 分片可以在同一个进程内（LocalUserShard），也可以在另一端的 socket 上（RemoteUserShard）。
+ * 批量方法一次请求处理一组用户，远程分片只需要一次往返。
+ */
+public interface UserShard extends Closeable {
+
+	User findById(long id);
+
+	User findByEmail(String email);
+
+	/**
+	 * 结果与 ids 一一对应，不存在的 id 对应 null。
+	 */
+	User[] findByIds(long[] ids);
+
+	/**
+	 * 插入一组已带 id 的用户，结果与 users 一一对应，id 或 email 已存在的为 false。
+	 */
+	boolean[] addAll(List<User> users);
+
+	void removeAll(List<User> users);
+
+	/**
+	 * 同 UserRepository.updatePassword。
+	 */
+	User updatePassword(User user, String password);
+
+	List<User> findAll();
+
+	/**
+	 * id 大于 afterId 的用户，按 id 升序，最多 limit 个。用来分页遍历整个分片，不必像 findAll 一样一次取回所有用户。
+	 */
+	List<User> findPage(long afterId, int limit);
+
+	/**
+	 * 分片中最大的 id，没有用户时为 0。
+	 */
+	long maxId();
+
+	int size();
+
+	@Override
+	default void close() throws IOException {
+	}
+}
@@ -0,0 +1,304 @@
+package com.company.service.shard;
+
+import com.company.service.ConcurrentUserRepository;
+import com.company.service.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 通过 ShardProtocol 对外提供一个分片的服务端：每个连接一个线程，请求直接交给本地的 UserShard 处理。
+ * AppConfig 在 app.users.shard-transport=loopback 时为每个分片在 127.0.0.1 的临时端口上启动一个，
+ * 用来在单机上模拟远程分片；也可以用 main 单独启动成一个进程。
+ * <p>
+ * 信任边界：新连接必须先用共享密钥通过握手（HANDSHAKE_TIMEOUT_MILLIS 内），否则断开；同时在握手中的连接最多
+ * MAX_PENDING_HANDSHAKES 个，超出时新连接直接关闭，未认证的对端不能无限制地占用线程；
+ * 请求中的数量超过 ShardProtocol.MAX_BATCH 时断开连接，不按对端给的长度分配内存。
+ * 握手之后的流量不加密，main 默认只监听回环地址，对外监听时需要放在可信的网络中。
+ */
+public class UserShardServer implements Closeable {
+
+	// 单独启动时从这个环境变量读取共享密钥，与客户端的 app.users.shard-secret 相同
+	public static final String SECRET_ENV = "USER_SHARD_SECRET";
+
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+	static final int MAX_PENDING_HANDSHAKES = 64;
+
+	private final UserShard shard;
+	private final byte[] secret;
+	private final SecureRandom random = new SecureRandom();
+	private final ServerSocket serverSocket;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final Semaphore pendingHandshakes = new Semaphore(MAX_PENDING_HANDSHAKES);
+	private volatile boolean running = true;
+
+	public UserShardServer(UserShard shard, InetSocketAddress address, byte[] secret) throws IOException {
+		if (secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("a shared secret is required");
+		}
+		this.shard = shard;
+		this.secret = secret.clone();
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.bind(address);
+		Thread acceptor = new Thread(this::acceptLoop, "user-shard-server-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * 在本机回环地址的临时端口上启动。
+	 */
+	public static UserShardServer loopback(UserShard shard, byte[] secret) throws IOException {
+		return new UserShardServer(shard, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for (Socket socket : connections) {
+			socket.close();
+		}
+		shard.close();
+	}
+
+	private void acceptLoop() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				if (!pendingHandshakes.tryAcquire()) {
+					System.err.println("In the UserShardServer:too many pending handshakes, closed "
+							+ socket.getRemoteSocketAddress());
+					socket.close();
+					continue;
+				}
+				connections.add(socket);
+				Thread handler = new Thread(() -> serve(socket), "user-shard-connection-" + socket.getPort());
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				if (running) {
+					System.err.println("In the UserShardServer:accept failed on port " + getPort() + ": " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 调用时持有一个 pendingHandshakes 许可，握手结束（不论成败）后归还。
+	 */
+	private void serve(Socket socket) {
+		boolean handshaking = true;
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+			s.setTcpNoDelay(true);
+			boolean authenticated = authenticate(s, in, out);
+			handshaking = false;
+			pendingHandshakes.release();
+			if (!authenticated) {
+				return;
+			}
+			while (true) {
+				byte op;
+				try {
+					op = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				handle(op, in, out);
+				// 客户端流水线发来的后续请求已经到了时先不 flush，让这些响应合并成一次发送
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			if (running) {
+				System.err.println("In the UserShardServer:connection from " + socket.getRemoteSocketAddress() + " failed: " + e);
+			}
+		} finally {
+			if (handshaking) {
+				pendingHandshakes.release();
+			}
+			connections.remove(socket);
+		}
+	}
+
+	/**
+	 * 发出 challenge，校验客户端用共享密钥算出的 HMAC；不对时回 ERROR 并返回 false。
+	 */
+	private boolean authenticate(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+		byte[] nonce = new byte[ShardProtocol.NONCE_BYTES];
+		random.nextBytes(nonce);
+		out.writeInt(ShardProtocol.HANDSHAKE_MAGIC);
+		out.write(nonce);
+		out.flush();
+		byte[] answer = new byte[ShardProtocol.MAC_BYTES];
+		socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+		in.readFully(answer);
+		socket.setSoTimeout(0);
+		if (!MessageDigest.isEqual(answer, ShardProtocol.mac(secret, nonce))) {
+			System.err.println("In the UserShardServer:rejected " + socket.getRemoteSocketAddress() + ": wrong shared secret");
+			out.writeByte(ShardProtocol.ERROR);
+			out.writeUTF("authentication failed");
+			out.flush();
+			return false;
+		}
+		out.writeByte(ShardProtocol.OK);
+		out.flush();
+		return true;
+	}
+
+	private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+		// 先读完整个请求再处理，处理失败时回 ERROR，连接仍然可用
+		switch (op) {
+		case ShardProtocol.FIND_BY_ID: {
+			long id = in.readLong();
+			respond(out, body -> ShardProtocol.writeUser(body, shard.findById(id)));
+			break;
+		}
+		case ShardProtocol.FIND_BY_EMAIL: {
+			String email = in.readUTF();
+			respond(out, body -> ShardProtocol.writeUser(body, shard.findByEmail(email)));
+			break;
+		}
+		case ShardProtocol.FIND_BY_IDS: {
+			long[] ids = new long[ShardProtocol.readCount(in)];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = in.readLong();
+			}
+			respond(out, body -> {
+				for (User user : shard.findByIds(ids)) {
+					ShardProtocol.writeUser(body, user);
+				}
+			});
+			break;
+		}
+		case ShardProtocol.ADD_ALL: {
+			List<User> users = readUsers(in);
+			respond(out, body -> {
+				for (boolean added : shard.addAll(users)) {
+					body.writeBoolean(added);
+				}
+			});
+			break;
+		}
+		case ShardProtocol.REMOVE_ALL: {
+			List<User> users = readUsers(in);
+			respond(out, body -> shard.removeAll(users));
+			break;
+		}
+		case ShardProtocol.UPDATE_PASSWORD: {
+			User user = ShardProtocol.readUser(in);
+			String password = in.readUTF();
+			respond(out, body -> ShardProtocol.writeUser(body, shard.updatePassword(user, password)));
+			break;
+		}
+		case ShardProtocol.FIND_ALL:
+			respond(out, body -> {
+				List<User> users = shard.findAll();
+				body.writeInt(users.size());
+				for (User user : users) {
+					ShardProtocol.writeUser(body, user);
+				}
+			});
+			break;
+		case ShardProtocol.FIND_PAGE: {
+			long afterId = in.readLong();
+			int limit = ShardProtocol.readCount(in);
+			respond(out, body -> {
+				List<User> users = shard.findPage(afterId, limit);
+				body.writeInt(users.size());
+				for (User user : users) {
+					ShardProtocol.writeUser(body, user);
+				}
+			});
+			break;
+		}
+		case ShardProtocol.MAX_ID:
+			respond(out, body -> body.writeLong(shard.maxId()));
+			break;
+		case ShardProtocol.SIZE:
+			respond(out, body -> body.writeInt(shard.size()));
+			break;
+		default:
+			// 不认识的请求无法知道参数长度，只能断开连接
+			throw new IOException("unknown shard op " + op);
+		}
+	}
+
+	private static List<User> readUsers(DataInputStream in) throws IOException {
+		int n = ShardProtocol.readCount(in);
+		List<User> users = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			users.add(ShardProtocol.readUser(in));
+		}
+		return users;
+	}
+
+	/**
+	 * 结果先写进缓冲区，成功后再连同 OK 一起发出；出错时只发 ERROR 和错误信息。
+	 */
+	private static void respond(DataOutputStream out, Response response) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(buffer);
+		try {
+			response.writeTo(body);
+		} catch (RuntimeException e) {
+			out.writeByte(ShardProtocol.ERROR);
+			out.writeUTF(String.valueOf(e));
+			return;
+		}
+		out.writeByte(ShardProtocol.OK);
+		buffer.writeTo(out);
+	}
+
+	@FunctionalInterface
+	private interface Response {
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * 单独启动一个分片进程：USER_SHARD_SECRET=... java ... com.company.service.shard.UserShardServer [port] [bind-address]
+	 * 默认只监听本机回环地址；其他机器上的客户端要访问时显式给出 bind-address（例如 0.0.0.0）。
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String secret = System.getenv(SECRET_ENV);
+		if (secret == null || secret.isEmpty()) {
+			System.err.println("In the UserShardServer:" + SECRET_ENV + " must be set to the shared secret (app.users.shard-secret)");
+			System.exit(2);
+		}
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7301;
+		InetAddress bindAddress = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+		UserShardServer server = new UserShardServer(new LocalUserShard(new ConcurrentUserRepository()),
+				new InetSocketAddress(bindAddress, port), secret.getBytes(StandardCharsets.UTF_8));
+		System.out.println("In the UserShardServer:Listening on " + server.getAddress());
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,237 @@
+package com.company.service.store;
+
+import com.company.service.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 一代（generation）追加写日志文件，通过内存映射的 FileChannel 写入。
+ * <p>
+ * 文件按 chunkSize 分块映射，写满一块再映射下一块（文件随之扩展，未写部分为 0）。
+ * 一条记录不会跨块：当前块放不下时写一个 PADDING 标记并跳到下一块。
+ * 第一块开头是文件头（MAGIC、chunkSize），回放时据此定位各块；读到长度 0 表示日志结束，
+ * 读到不完整或校验失败的记录则视为崩溃时写了一半的尾巴，在此停止。
+ * <p>
+ * 一批记录写入失败时，UserStore 用 mark / rollback 把这一批已经写进映射区的字节清零，回放就不会读到它们。
+ */
+class UserLog implements Closeable {
+
+	private static final int MAGIC = 0x55534c47; // "USLG"
+	private static final int FILE_HEADER_BYTES = 16;
+	private static final int PADDING = -1;
+
+	private final Path path;
+	private final long generation;
+	private final int chunkSize;
+	private final FileChannel channel;
+
+	private MappedByteBuffer chunk;
+	private long chunkStart;
+	private long records;
+
+	private UserLog(Path path, long generation, int chunkSize, FileChannel channel) {
+		this.path = path;
+		this.generation = generation;
+		this.chunkSize = chunkSize;
+		this.channel = channel;
+	}
+
+	static UserLog create(Path path, long generation, int chunkSize) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		UserLog log = new UserLog(path, generation, chunkSize, channel);
+		log.chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+		log.chunk.putInt(MAGIC).putInt(chunkSize).putLong(generation);
+		log.chunk.force();
+		return log;
+	}
+
+	/**
+	 * 重新打开已有的日志继续追加：定位到最后一条完整记录之后，把崩溃时写了一半的尾巴清零，并去掉其后多映射出来的块。
+	 * 块大小以文件头为准，与当前配置无关。
+	 */
+	static UserLog open(Path path, long generation) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if (size < FILE_HEADER_BYTES) {
+				throw new IOException("truncated user log: " + path);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("not a user log: " + path);
+			}
+			UserLog log = new UserLog(path, generation, header.getInt(), channel);
+			long start = 0;
+			while (true) {
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, log.chunkSize);
+				if (start == 0) {
+					chunk.position(FILE_HEADER_BYTES);
+				}
+				boolean padded = false;
+				while (chunk.remaining() >= 4) {
+					int length = chunk.getInt(chunk.position());
+					if (length == PADDING) {
+						padded = true;
+						break;
+					}
+					if (length == 0 || UserRecords.read(chunk) == null) {
+						break;
+					}
+					log.records++;
+				}
+				if (padded) {
+					start += log.chunkSize;
+					continue;
+				}
+				for (int i = chunk.position(); i < chunk.limit(); i++) {
+					if (chunk.get(i) != 0) {
+						chunk.put(i, (byte) 0);
+					}
+				}
+				chunk.force();
+				if (channel.size() > start + log.chunkSize) {
+					channel.truncate(start + log.chunkSize);
+				}
+				log.chunk = chunk;
+				log.chunkStart = start;
+				return log;
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	long getRecords() {
+		return records;
+	}
+
+	/**
+	 * 把记录写入映射区，不做 fsync；调用方写完一批后调用 force()。
+	 */
+	void append(User user) throws IOException {
+		byte[][] fields = UserRecords.fields(user);
+		int recordLength = UserRecords.HEADER_BYTES + UserRecords.payloadLength(fields);
+		// 末尾至少留 4 字节给 PADDING / 结束标记
+		if (recordLength + 4 > chunkSize - FILE_HEADER_BYTES) {
+			throw new IOException("user record of " + recordLength + " bytes exceeds log chunk size " + chunkSize);
+		}
+		if (chunk.remaining() < recordLength + 4) {
+			// 先映射下一块再写 PADDING：映射失败时当前块和 chunkStart 都保持不变，rollback 才能找到写过的位置
+			MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart + chunkSize, chunkSize);
+			chunk.putInt(PADDING);
+			chunk.force();
+			chunkStart += chunkSize;
+			chunk = next;
+		}
+		UserRecords.write(chunk, user.getId(), fields);
+		records++;
+	}
+
+	/**
+	 * 记下当前的写入位置和记录数。
+	 */
+	Mark mark() {
+		return new Mark(chunkStart, chunk.position(), records);
+	}
+
+	/**
+	 * 撤销 mark 之后写入的所有内容：把这段字节（包括换块时写的 PADDING）清零并 fsync，然后回到 mark 的位置继续写。
+	 */
+	void rollback(Mark mark) throws IOException {
+		for (long start = mark.chunkStart; start <= chunkStart; start += chunkSize) {
+			MappedByteBuffer target = start == chunkStart ? chunk
+					: channel.map(FileChannel.MapMode.READ_WRITE, start, chunkSize);
+			int from = start == mark.chunkStart ? mark.position : 0;
+			int to = start == chunkStart ? chunk.position() : chunkSize;
+			for (int i = from; i < to; i++) {
+				target.put(i, (byte) 0);
+			}
+			target.force();
+		}
+		if (chunkStart != mark.chunkStart) {
+			chunk = channel.map(FileChannel.MapMode.READ_WRITE, mark.chunkStart, chunkSize);
+			chunkStart = mark.chunkStart;
+		}
+		chunk.position(mark.position);
+		records = mark.records;
+	}
+
+	void force() {
+		chunk.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	/**
+	 * 依次回放日志中的完整记录，返回回放的条数。
+	 */
+	static long replay(Path path, Consumer<User> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < FILE_HEADER_BYTES) {
+				return 0;
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("not a user log: " + path);
+			}
+			int chunkSize = header.getInt();
+			long count = 0;
+			for (long start = 0; start < size; start += chunkSize) {
+				ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+				if (start == 0) {
+					chunk.position(FILE_HEADER_BYTES);
+				}
+				while (true) {
+					if (chunk.remaining() < 4) {
+						return count;
+					}
+					int length = chunk.getInt(chunk.position());
+					if (length == PADDING) {
+						break;
+					}
+					User user = length == 0 ? null : UserRecords.read(chunk);
+					if (user == null) {
+						return count;
+					}
+					consumer.accept(user);
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	static final class Mark {
+		final long chunkStart;
+		final int position;
+		final long records;
+
+		Mark(long chunkStart, int position, long records) {
+			this.chunkStart = chunkStart;
+			this.position = position;
+			this.records = records;
+		}
+	}
+}
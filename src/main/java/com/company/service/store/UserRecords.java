@@ -0,0 +1,102 @@
+package com.company.service.store;
+
+import com.company.service.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 日志和快照共用的 User 记录编码：
+ * <pre>
+ * int length | int crc32(payload) | payload = long id, (int len, UTF-8 bytes) x email / password / name
+ * </pre>
+ */
+final class UserRecords {
+
+	static final int HEADER_BYTES = 8;
+
+	private UserRecords() {
+	}
+
+	static byte[][] fields(User user) {
+		return new byte[][] {
+				user.getEmail().getBytes(StandardCharsets.UTF_8),
+				user.getPassword().getBytes(StandardCharsets.UTF_8),
+				user.getName().getBytes(StandardCharsets.UTF_8) };
+	}
+
+	static int payloadLength(byte[][] fields) {
+		int length = 8;
+		for (byte[] field : fields) {
+			length += 4 + field.length;
+		}
+		return length;
+	}
+
+	/**
+	 * 把一条完整记录（含长度和校验和）写到 out 的当前位置，调用方保证剩余空间足够。
+	 */
+	static void write(ByteBuffer out, long id, byte[][] fields) {
+		int start = out.position();
+		int payloadLength = payloadLength(fields);
+		out.putInt(payloadLength);
+		out.putInt(0);
+		out.putLong(id);
+		for (byte[] field : fields) {
+			out.putInt(field.length);
+			out.put(field);
+		}
+		ByteBuffer payload = out.duplicate();
+		payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + payloadLength);
+		out.putInt(start + 4, crc(payload));
+	}
+
+	/**
+	 * 从 in 的当前位置读一条记录；记录不完整或校验失败（写到一半时崩溃）返回 null，且不移动 position。
+	 */
+	static User read(ByteBuffer in) {
+		int start = in.position();
+		if (in.remaining() < HEADER_BYTES) {
+			return null;
+		}
+		int payloadLength = in.getInt(start);
+		int crc = in.getInt(start + 4);
+		if (payloadLength < 20 || payloadLength > in.remaining() - HEADER_BYTES) {
+			return null;
+		}
+		ByteBuffer payload = in.duplicate();
+		payload.position(start + HEADER_BYTES).limit(start + HEADER_BYTES + payloadLength);
+		if (crc(payload.duplicate()) != crc) {
+			return null;
+		}
+		long id = payload.getLong();
+		String email = readString(payload);
+		String password = readString(payload);
+		String name = readString(payload);
+		if (email == null || password == null || name == null) {
+			return null;
+		}
+		in.position(start + HEADER_BYTES + payloadLength);
+		return new User(id, email, password, name);
+	}
+
+	private static String readString(ByteBuffer payload) {
+		if (payload.remaining() < 4) {
+			return null;
+		}
+		int length = payload.getInt();
+		if (length < 0 || length > payload.remaining()) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int crc(ByteBuffer payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+}
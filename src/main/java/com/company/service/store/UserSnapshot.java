@@ -0,0 +1,163 @@
+package com.company.service.store;
+
+import com.company.service.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 压缩后的快照文件：文件头（MAGIC、generation）+ 每个用户一条记录 + 结尾的记录数。
+ * 先写临时文件并 fsync，再原子地 rename 为正式文件名，因此快照文件要么完整、要么不存在。
+ */
+final class UserSnapshot {
+
+	private static final int MAGIC = 0x55535350; // "USSP"
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private UserSnapshot() {
+	}
+
+	/**
+	 * 开始写一个快照：记录逐条 append，最后 commit；没有 commit 就 close 时删除临时文件。
+	 */
+	static Writer create(Path target, long generation) throws IOException {
+		return new Writer(target, generation);
+	}
+
+	static final class Writer implements Closeable {
+		private final Path target;
+		private final Path tmp;
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		private long count;
+		private boolean committed;
+
+		private Writer(Path target, long generation) throws IOException {
+			this.target = target;
+			this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+			this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.putInt(MAGIC).putLong(generation);
+		}
+
+		void append(User user) throws IOException {
+			byte[][] fields = UserRecords.fields(user);
+			int recordLength = UserRecords.HEADER_BYTES + UserRecords.payloadLength(fields);
+			if (buffer.remaining() < recordLength) {
+				flush(channel, buffer);
+				if (buffer.capacity() < recordLength) {
+					buffer = ByteBuffer.allocate(recordLength);
+				}
+			}
+			UserRecords.write(buffer, user.getId(), fields);
+			count++;
+		}
+
+		/**
+		 * 写结尾、fsync，再原子地 rename 为正式文件名，返回写入的记录数。
+		 */
+		long commit() throws IOException {
+			if (buffer.remaining() < 12) {
+				flush(channel, buffer);
+			}
+			// 结尾用 0 长度标记记录结束，再写记录数用于校验
+			buffer.putInt(0).putLong(count);
+			flush(channel, buffer);
+			channel.force(true);
+			channel.close();
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			committed = true;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!committed) {
+				channel.close();
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * 读取快照中的所有用户，返回快照对应的 generation。
+	 */
+	static long read(Path path, Consumer<User> consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			fill(channel, buffer);
+			if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+				throw new IOException("not a user snapshot: " + path);
+			}
+			long generation = buffer.getLong();
+			long count = 0;
+			while (true) {
+				if (buffer.remaining() < 4 && !refill(channel, buffer)) {
+					throw new IOException("truncated user snapshot: " + path);
+				}
+				if (buffer.getInt(buffer.position()) == 0) {
+					buffer.getInt();
+					break;
+				}
+				User user = UserRecords.read(buffer);
+				if (user == null) {
+					int needed = UserRecords.HEADER_BYTES + buffer.getInt(buffer.position());
+					if (needed > buffer.capacity()) {
+						ByteBuffer larger = ByteBuffer.allocate(needed);
+						larger.put(buffer);
+						buffer = larger;
+						buffer.flip();
+					}
+					if (buffer.remaining() >= needed || !refill(channel, buffer)) {
+						throw new IOException("corrupt user snapshot: " + path);
+					}
+					continue;
+				}
+				consumer.accept(user);
+				count++;
+			}
+			if (buffer.remaining() < 8 && !refill(channel, buffer)) {
+				throw new IOException("truncated user snapshot: " + path);
+			}
+			if (buffer.getLong() != count) {
+				throw new IOException("corrupt user snapshot: " + path + ", record count mismatch");
+			}
+			return generation;
+		}
+	}
+
+	/**
+	 * 保留未读的部分，从文件继续读入；没有读到新数据时返回 false。
+	 */
+	private static boolean refill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.compact();
+		int before = buffer.position();
+		while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+		}
+		boolean progressed = buffer.position() > before;
+		buffer.flip();
+		return progressed;
+	}
+
+	private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+		}
+		buffer.flip();
+	}
+}
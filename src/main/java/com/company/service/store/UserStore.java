@@ -0,0 +1,397 @@
+package com.company.service.store;
+
+import com.company.service.User;
+import com.company.service.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.company.startup.ParallelInit;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * User 数据的持久化：追加写日志（UserLog）+ 定期压缩快照（UserSnapshot）。
+ * <p>
+ * 并发的 register 把记录交给唯一的写线程，写线程一次取走所有等待中的记录，写入后只 fsync 一次（group commit），
+ * 再统一唤醒这些调用方；一批写入失败时把这一批从日志中撤销（清零），调用方各自回滚内存中的插入。
+ * 日志记录数达到 snapshotThreshold 时，写线程切换到新一代日志，后台线程把上一个快照和已经封存的旧日志合并成新快照，
+ * 成功后删除旧日志和旧快照。
+ * 启动时先读最新快照，再回放比快照新的日志，因此恢复时间只和快照大小加日志尾部有关，与历史总量无关。
+ * 只有一代没写满的日志时重新打开它接着写；否则（上次运行的日志已经写满，或者留下了多代日志）切换到新一代并马上压缩，
+ * 所以反复重启不会让日志越积越多。
+ * 同一个 id 可以有多条记录（登录时把明文密码升级为哈希后再追加一条），恢复时后面的记录覆盖前面的密文，快照里每个 id 只保留最后一条。
+ * <p>
+ * append 与 shutdown 之间用 state 协调（同 MailDispatcher）：append 先登记（CAS）再入队，shutdown 置上 SHUTDOWN 位后
+ * 等所有登记的 append 退出才通知写线程退出，因此不会有记录在写线程最后一次 drainTo 之后入队、永远等不到结果。
+ * <p>
+ * 通过 app.store.enabled 打开，默认关闭（此时 append 什么也不做）。
+ */
+@Component
+public class UserStore {
+
+	private static final String LOG_PREFIX = "users-";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".dat";
+
+	@Autowired
+	UserRepository userRepository;
+
+	@Value("${app.store.enabled:false}")
+	boolean enabled;
+
+	@Value("${app.store.dir:data}")
+	String dir;
+
+	@Value("${app.store.chunk-size:16777216}")
+	int chunkSize;
+
+	@Value("${app.store.snapshot-threshold:100000}")
+	long snapshotThreshold;
+
+	private Path directory;
+	private UserLog log;
+	private Thread writer;
+	private ExecutorService snapshotExecutor;
+	private final LinkedBlockingQueue<PendingAppend> pending = new LinkedBlockingQueue<>();
+	// 最高位是 SHUTDOWN 标志（init 之前和 shutdown 之后都置位），低位是正在入队的 append 数
+	private static final int SHUTDOWN = 1 << 31;
+	private final AtomicInteger state = new AtomicInteger(SHUTDOWN);
+	private long replayedLogRecords;
+	// 恢复时回放过的、比快照新的日志
+	private final List<Long> replayedLogs = new ArrayList<>();
+	// 撤销失败批次时出错，日志里可能留着调用方以为失败了的记录；之后的写入全部拒绝，只由写线程访问
+	private IOException broken;
+
+	// 放入 pending 队列通知写线程退出
+	private static final PendingAppend STOP = new PendingAppend(null);
+
+	// 恢复是启动时最慢的 I/O，打开 app.startup.parallel 后与其他 @ParallelInit 并发执行
+	@ParallelInit
+	public void init() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		this.directory = Paths.get(dir);
+		Files.createDirectories(directory);
+		long start = System.nanoTime();
+		long generation = recover();
+		System.out.println(String.format("In the UserStore:Recovered %d users from %s in %d ms", userRepository.size(),
+				directory.toAbsolutePath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		boolean compact = false;
+		if (replayedLogs.size() == 1 && replayedLogRecords < snapshotThreshold) {
+			// 上次运行的日志还没写满：接着写，不必每次启动都新建一代（每代至少占一个 chunkSize）
+			this.log = UserLog.open(logPath(generation), generation);
+		} else {
+			// 旧日志留到快照完成后再删除
+			this.log = UserLog.create(logPath(generation + 1), generation + 1, chunkSize);
+			compact = !replayedLogs.isEmpty();
+		}
+		this.snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "user-store-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.writer = new Thread(this::writeLoop, "user-store-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		state.set(0);
+		if (compact) {
+			// 上次运行留下的日志太长或不止一代，马上压缩成快照，避免下次启动再回放一遍
+			snapshotExecutor.execute(() -> snapshot(generation));
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws IOException, InterruptedException {
+		if (!enabled || (state.getAndUpdate(s -> s | SHUTDOWN) & SHUTDOWN) != 0) {
+			return;
+		}
+		// 等正在入队的 append 退出：入队不会阻塞，很快就能等到
+		while ((state.get() & ~SHUTDOWN) != 0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		// 不用 interrupt：中断正在 map 的写线程会导致 FileChannel 被关闭
+		pending.add(STOP);
+		writer.join();
+		snapshotExecutor.shutdown();
+		snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+		log.close();
+	}
+
+	/**
+	 * 持久化一个新注册（或密码被更新）的用户，返回时记录已经 fsync 到磁盘。
+	 */
+	public void append(User user) {
+		if (!enabled) {
+			return;
+		}
+		PendingAppend append = new PendingAppend(user);
+		enqueue(Collections.singletonList(append));
+		try {
+			append.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while persisting user " + user.getId(), e);
+		} catch (ExecutionException e) {
+			throw new UncheckedIOException("failed to persist user " + user.getId(),
+					e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+		}
+	}
+
+	/**
+	 * 批量持久化：一次性全部入队（通常会落在同一次 group commit 中），再等待全部完成。
+	 * 返回没能持久化的用户，全部成功时返回空列表。
+	 */
+	public List<User> appendAll(List<User> users) {
+		if (!enabled || users.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<PendingAppend> appends = new ArrayList<>(users.size());
+		for (User user : users) {
+			appends.add(new PendingAppend(user));
+		}
+		enqueue(appends);
+		List<User> failed = new ArrayList<>();
+		for (PendingAppend append : appends) {
+			try {
+				append.done.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while persisting " + users.size() + " users", e);
+			} catch (ExecutionException e) {
+				failed.add(append.user);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * 登记为正在入队后再放进 pending；已经关闭（或还没有 init）时抛出 IllegalStateException。
+	 */
+	private void enqueue(List<PendingAppend> appends) {
+		while (true) {
+			int s = state.get();
+			if ((s & SHUTDOWN) != 0) {
+				throw new IllegalStateException("user store is shut down");
+			}
+			if (state.compareAndSet(s, s + 1)) {
+				break;
+			}
+		}
+		try {
+			pending.addAll(appends);
+		} finally {
+			state.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 读最新的快照，再按 generation 顺序回放比它新的日志，返回见到的最大 generation。
+	 */
+	private long recover() throws IOException {
+		List<Long> snapshots = generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		long snapshotGeneration = 0;
+		if (!snapshots.isEmpty()) {
+			long latest = snapshots.get(snapshots.size() - 1);
+			snapshotGeneration = UserSnapshot.read(snapshotPath(latest), this::restore);
+		}
+		long generation = snapshotGeneration;
+		for (long logGeneration : generations(LOG_PREFIX, LOG_SUFFIX)) {
+			if (logGeneration > snapshotGeneration) {
+				replayedLogRecords += UserLog.replay(logPath(logGeneration), this::restore);
+				replayedLogs.add(logGeneration);
+			}
+			generation = Math.max(generation, logGeneration);
+		}
+		return generation;
+	}
+
+	/**
+	 * id 已存在（快照或更早的日志里已经恢复过、或是 AppConfig 中的初始用户）且 email 相同时，用这条记录的密文覆盖。
+	 */
+	private void restore(User user) {
+		if (userRepository.add(user)) {
+			return;
+		}
+		User current = userRepository.findById(user.getId());
+		if (current != null && !current.getPassword().equals(user.getPassword())
+				&& UserRepository.foldEmail(current.getEmail()).equals(UserRepository.foldEmail(user.getEmail()))) {
+			userRepository.updatePassword(current, user.getPassword());
+		}
+	}
+
+	private void writeLoop() {
+		List<PendingAppend> batch = new ArrayList<>();
+		boolean stopping = false;
+		while (!stopping) {
+			try {
+				batch.add(pending.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			pending.drainTo(batch);
+			stopping = batch.remove(STOP);
+			writeBatch(batch);
+			batch.clear();
+			if (log.getRecords() >= snapshotThreshold) {
+				rotate();
+			}
+		}
+		// shutdown 等所有 append 退出后才发 STOP，这里正常不会再取到记录
+		pending.drainTo(batch);
+		for (PendingAppend append : batch) {
+			if (append != STOP) {
+				append.done.completeExceptionally(new IOException("user store is shut down"));
+			}
+		}
+	}
+
+	private void writeBatch(List<PendingAppend> batch) {
+		if (broken != null) {
+			for (PendingAppend append : batch) {
+				append.done.completeExceptionally(broken);
+			}
+			return;
+		}
+		UserLog.Mark mark = log.mark();
+		try {
+			for (PendingAppend append : batch) {
+				log.append(append.user);
+			}
+			log.force();
+			for (PendingAppend append : batch) {
+				append.done.complete(null);
+			}
+		} catch (IOException | RuntimeException e) {
+			// 调用方会回滚内存中的插入，所以这一批已经写进映射区的记录也要撤销，否则重启回放时它们会复活
+			try {
+				log.rollback(mark);
+			} catch (IOException | RuntimeException rollbackFailure) {
+				broken = new IOException("user log " + log.getPath() + " could not be rolled back", rollbackFailure);
+				System.err.println("In the UserStore:" + broken.getMessage() + ", rejecting further appends: "
+						+ rollbackFailure);
+			}
+			for (PendingAppend append : batch) {
+				append.done.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * 切换到新一代日志，并在后台为切换之前的日志写快照。
+	 */
+	private void rotate() {
+		UserLog old = log;
+		try {
+			log = UserLog.create(logPath(old.getGeneration() + 1), old.getGeneration() + 1, chunkSize);
+			old.close();
+		} catch (IOException e) {
+			System.err.println("In the UserStore:failed to rotate log " + old.getPath() + ": " + e);
+			return;
+		}
+		long generation = old.getGeneration();
+		snapshotExecutor.execute(() -> snapshot(generation));
+	}
+
+	/**
+	 * 为 generation 及之前的数据写快照：上一个快照加上比它新、不超过 generation 的日志，每个 id 只保留最后一条记录，
+	 * 按 id 第一次出现的顺序写出（合并时要在内存里放下所有用户，与 UserRepository 同一量级）。
+	 * 只用已经落盘的数据而不读 UserRepository：内存中有还在等待持久化、或即将因持久化失败而回滚的用户，它们不能进入快照。
+	 */
+	private void snapshot(long generation) {
+		try {
+			long start = System.nanoTime();
+			long previous = 0;
+			for (long older : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+				if (older < generation) {
+					previous = older;
+				}
+			}
+			Map<Long, User> latest = new LinkedHashMap<>();
+			Consumer<User> sink = user -> latest.put(user.getId(), user);
+			if (previous > 0) {
+				UserSnapshot.read(snapshotPath(previous), sink);
+			}
+			for (long logGeneration : generations(LOG_PREFIX, LOG_SUFFIX)) {
+				if (logGeneration > previous && logGeneration <= generation) {
+					UserLog.replay(logPath(logGeneration), sink);
+				}
+			}
+			long count;
+			try (UserSnapshot.Writer writer = UserSnapshot.create(snapshotPath(generation), generation)) {
+				for (User user : latest.values()) {
+					writer.append(user);
+				}
+				count = writer.commit();
+			}
+			for (long older : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+				if (older < generation) {
+					Files.deleteIfExists(snapshotPath(older));
+				}
+			}
+			for (long older : generations(LOG_PREFIX, LOG_SUFFIX)) {
+				if (older <= generation) {
+					Files.deleteIfExists(logPath(older));
+				}
+			}
+			System.out.println(String.format("In the UserStore:Wrote snapshot %d with %d users in %d ms", generation,
+					count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} catch (IOException e) {
+			System.err.println("In the UserStore:failed to write snapshot " + generation + ": " + e);
+		}
+	}
+
+	private List<Long> generations(String prefix, String suffix) throws IOException {
+		List<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+				} catch (NumberFormatException e) {
+					// 不是本类写的文件，忽略
+				}
+			}
+		}
+		generations.sort(null);
+		return generations;
+	}
+
+	private Path logPath(long generation) {
+		return directory.resolve(String.format("%s%016d%s", LOG_PREFIX, generation, LOG_SUFFIX));
+	}
+
+	private Path snapshotPath(long generation) {
+		return directory.resolve(String.format("%s%016d%s", SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+	}
+
+	private static final class PendingAppend {
+		final User user;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		PendingAppend(User user) {
+			this.user = user;
+		}
+	}
+}
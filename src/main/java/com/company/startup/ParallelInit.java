@@ -0,0 +1,22 @@
+package com.company.startup;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注一个无参的初始化方法，用来代替 @PostConstruct 做耗时的（通常是 I/O）初始化，例如读取资源、建立连接、恢复数据。
+ * <p>
+ * 默认（app.startup.parallel=false）时它和 @PostConstruct 一样，在 Bean 注入完成后立即在创建线程上执行。
+ * 打开 app.startup.parallel 后，这些方法推迟到所有单例创建完之后，由 ParallelInitProcessor 按依赖关系在线程池上并发执行：
+ * 一个 Bean 的 @ParallelInit 方法只会在它（直接或间接）@Autowired 依赖的 Bean 的 @ParallelInit 方法完成后才开始。
+ * <p>
+ * 因为推迟执行，其他 Bean 的 @PostConstruct 中不能依赖这里初始化的状态。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ParallelInit {
+}
@@ -0,0 +1,13 @@
+package com.company.startup;
+
+/**
+ * 推迟执行的 @ParallelInit 完成后的回调，由 ParallelInitProcessor 在所有初始化成功后调用。
+ * 串行模式下 @ParallelInit 在 Bean 的初始化阶段内执行，不会调用它。
+ */
+public interface ParallelInitListener {
+
+	/**
+	 * @param nanos 这个 Bean 的 @ParallelInit 方法的执行耗时
+	 */
+	void onParallelInit(String beanName, long nanos);
+}
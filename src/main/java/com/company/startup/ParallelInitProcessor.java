@@ -0,0 +1,286 @@
+package com.company.startup;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 执行 @ParallelInit 方法的 BeanPostProcessor。
+ * <p>
+ * Spring 5.2 在创建单例时持有全局的单例锁，Bean 的创建本身无法并发；所以这里只把 @ParallelInit 标注的初始化推迟，
+ * 等 preInstantiateSingletons 创建完所有单例（afterSingletonsInstantiated）之后再统一执行：
+ * <ol>
+ * <li>用 BeanFactory.getDependenciesForBean 记录的真实注入关系建立依赖图，穿过没有 @ParallelInit 的中间 Bean 取传递依赖；</li>
+ * <li>发现环时立即失败，错误信息中列出环上的 Bean；</li>
+ * <li>每个 Bean 的初始化在它依赖的初始化全部完成后提交到线程池，互不依赖的并发执行；</li>
+ * <li>全部完成后才返回，容器 refresh 结束时所有初始化都已完成；任何一个失败则 refresh 失败。</li>
+ * </ol>
+ * 最后打印总耗时、各初始化耗时之和，以及关键路径（决定启动耗时的那条依赖链），并把每个 Bean 的耗时通知给容器中的
+ * ParallelInitListener（InstrumentationPostProcessor 据此把它计入 Bean 的初始化耗时）。
+ */
+@Component
+public class ParallelInitProcessor
+		implements BeanPostProcessor, SmartInitializingSingleton, BeanFactoryAware, EnvironmentAware {
+
+	private ConfigurableListableBeanFactory beanFactory;
+	private boolean parallel;
+	private int threads;
+
+	// 推迟执行的初始化：beanName -> 任务，按 Bean 创建顺序
+	private final Map<String, InitTask> deferred = new LinkedHashMap<>();
+	private volatile boolean singletonsInstantiated;
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) {
+		this.beanFactory = (ConfigurableListableBeanFactory) beanFactory;
+	}
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		// BeanPostProcessor 创建得早，@Value 注入不到，直接从 Environment 读取
+		this.parallel = environment.getProperty("app.startup.parallel", Boolean.class, false);
+		int configured = environment.getProperty("app.startup.threads", Integer.class, 0);
+		this.threads = configured > 0 ? configured : Math.max(2, Runtime.getRuntime().availableProcessors());
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+		List<Method> methods = findInitMethods(bean.getClass());
+		if (methods.isEmpty()) {
+			return bean;
+		}
+		InitTask task = new InitTask(beanName, bean, methods);
+		if (!parallel || singletonsInstantiated) {
+			// 串行模式，或容器启动后才创建的 Bean（prototype、lazy）：和 @PostConstruct 一样立即执行
+			task.run();
+		} else {
+			synchronized (deferred) {
+				deferred.put(beanName, task);
+			}
+		}
+		return bean;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		singletonsInstantiated = true;
+		Map<String, InitTask> tasks;
+		synchronized (deferred) {
+			tasks = new LinkedHashMap<>(deferred);
+			deferred.clear();
+		}
+		if (tasks.isEmpty()) {
+			return;
+		}
+		Map<String, Set<String>> graph = new LinkedHashMap<>();
+		for (String name : tasks.keySet()) {
+			graph.put(name, initDependencies(name, tasks.keySet()));
+		}
+		List<String> order = topologicalOrder(graph);
+		long start = System.nanoTime();
+		AtomicInteger threadIds = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), r -> {
+			Thread thread = new Thread(r, "parallel-init-" + threadIds.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+			for (String name : order) {
+				CompletableFuture<?>[] deps = graph.get(name).stream().map(futures::get)
+						.toArray(CompletableFuture[]::new);
+				InitTask task = tasks.get(name);
+				futures.put(name, CompletableFuture.allOf(deps).thenRunAsync(task::run, executor));
+			}
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof BeansException) {
+				throw (BeansException) cause;
+			}
+			throw new BeanInitializationException("@ParallelInit failed", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+		report(tasks, graph, order, System.nanoTime() - start);
+		for (ParallelInitListener listener : beanFactory.getBeansOfType(ParallelInitListener.class).values()) {
+			for (InitTask task : tasks.values()) {
+				listener.onParallelInit(task.beanName, task.durationNanos);
+			}
+		}
+	}
+
+	/**
+	 * bean 依赖的、同样有推迟初始化的 Bean；沿着没有 @ParallelInit 的中间 Bean 继续向下找。
+	 */
+	private Set<String> initDependencies(String beanName, Set<String> participants) {
+		Set<String> result = new LinkedHashSet<>();
+		Set<String> visited = new HashSet<>();
+		Deque<String> pending = new ArrayDeque<>();
+		pending.push(beanName);
+		visited.add(beanName);
+		while (!pending.isEmpty()) {
+			for (String dependency : beanFactory.getDependenciesForBean(pending.pop())) {
+				if (!visited.add(dependency)) {
+					continue;
+				}
+				if (participants.contains(dependency)) {
+					result.add(dependency);
+				} else {
+					pending.push(dependency);
+				}
+			}
+		}
+		// A 依赖 B、B 又依赖 A 的情况下，从 A 出发会经过 B 再回到 A，这里不把自己算进去，环由 topologicalOrder 检查
+		result.remove(beanName);
+		return result;
+	}
+
+	/**
+	 * 依赖在前的顺序；有环时抛出 BeanInitializationException 并列出环。
+	 */
+	private static List<String> topologicalOrder(Map<String, Set<String>> graph) {
+		List<String> order = new ArrayList<>();
+		Map<String, Integer> state = new HashMap<>(); // 1 = 访问中，2 = 完成
+		for (String name : graph.keySet()) {
+			visit(name, graph, state, new ArrayDeque<>(), order);
+		}
+		return order;
+	}
+
+	private static void visit(String name, Map<String, Set<String>> graph, Map<String, Integer> state,
+			Deque<String> path, List<String> order) {
+		Integer s = state.get(name);
+		if (s != null && s == 2) {
+			return;
+		}
+		if (s != null) {
+			List<String> cycle = new ArrayList<>();
+			boolean inCycle = false;
+			for (java.util.Iterator<String> it = path.descendingIterator(); it.hasNext();) {
+				String step = it.next();
+				inCycle |= step.equals(name);
+				if (inCycle) {
+					cycle.add(step);
+				}
+			}
+			cycle.add(name);
+			throw new BeanInitializationException(
+					"Dependency cycle between @ParallelInit beans: " + String.join(" -> ", cycle));
+		}
+		state.put(name, 1);
+		path.push(name);
+		for (String dependency : graph.get(name)) {
+			visit(dependency, graph, state, path, order);
+		}
+		path.pop();
+		state.put(name, 2);
+		order.add(name);
+	}
+
+	private void report(Map<String, InitTask> tasks, Map<String, Set<String>> graph, List<String> order,
+			long wallNanos) {
+		// 关键路径：finish(b) = max(finish(依赖)) + duration(b)
+		Map<String, Long> finish = new HashMap<>();
+		Map<String, String> previous = new HashMap<>();
+		long serial = 0;
+		String last = null;
+		for (String name : order) {
+			long ready = 0;
+			for (String dependency : graph.get(name)) {
+				if (finish.get(dependency) > ready) {
+					ready = finish.get(dependency);
+					previous.put(name, dependency);
+				}
+			}
+			long duration = tasks.get(name).durationNanos;
+			serial += duration;
+			finish.put(name, ready + duration);
+			if (last == null || finish.get(name) > finish.get(last)) {
+				last = name;
+			}
+		}
+		Deque<String> path = new ArrayDeque<>();
+		for (String step = last; step != null; step = previous.get(step)) {
+			path.push(step + " (" + millis(tasks.get(step).durationNanos) + " ms)");
+		}
+		System.out.println(String.format(
+				"In the ParallelInitProcessor:Initialized %d beans in %d ms on %d threads (serial sum %d ms), "
+						+ "critical path %d ms: %s",
+				tasks.size(), millis(wallNanos), Math.min(threads, tasks.size()), millis(serial),
+				millis(finish.get(last)), String.join(" -> ", path)));
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static List<Method> findInitMethods(Class<?> type) {
+		List<Method> methods = new ArrayList<>();
+		ReflectionUtils.doWithMethods(type, method -> {
+			if (method.getParameterCount() != 0 || Modifier.isStatic(method.getModifiers())) {
+				throw new IllegalStateException("@ParallelInit method must be a no-arg instance method: " + method);
+			}
+			ReflectionUtils.makeAccessible(method);
+			methods.add(method);
+		}, method -> method.isAnnotationPresent(ParallelInit.class));
+		return methods;
+	}
+
+	private static final class InitTask {
+		final String beanName;
+		final Object bean;
+		final List<Method> methods;
+		volatile long durationNanos;
+
+		InitTask(String beanName, Object bean, List<Method> methods) {
+			this.beanName = beanName;
+			this.bean = bean;
+			this.methods = methods;
+		}
+
+		void run() {
+			long start = System.nanoTime();
+			try {
+				for (Method method : methods) {
+					method.invoke(bean);
+				}
+			} catch (InvocationTargetException e) {
+				throw new BeanInitializationException("@ParallelInit of bean '" + beanName + "' failed",
+						e.getTargetException());
+			} catch (IllegalAccessException e) {
+				throw new BeanInitializationException("cannot invoke @ParallelInit of bean '" + beanName + "'", e);
+			} finally {
+				durationNanos = System.nanoTime() - start;
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.company.config;
+
+import com.company.resource.ResourceRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ConfigurationManagerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ResourceRegistry registry = new ResourceRegistry();
+	private final StandardEnvironment environment = new StandardEnvironment();
+	private final ConfigurationManager manager = new ConfigurationManager();
+	private final BlockingQueue<AppSettings[]> changes = new LinkedBlockingQueue<>();
+	// 每次 ConfigurationManager 处理完文件变化后收到一个信号（它的回调先于这里注册）
+	private final BlockingQueue<Long> processed = new LinkedBlockingQueue<>();
+	private Path file;
+
+	@Before
+	public void start() throws Exception {
+		file = folder.getRoot().toPath().resolve("app.properties");
+		replace("app.name=demo\napp.zone=UTC\napp.password.iterations=1000\n");
+		String location = file.toUri().toString();
+		Resource resource = new DefaultResourceLoader().getResource(location);
+		// 和 @PropertySource 一样，以资源描述为名注册
+		environment.getPropertySources().addLast(new ResourcePropertySource(resource));
+		manager.environment = environment;
+		manager.resourceLoader = new DefaultResourceLoader();
+		manager.resourceRegistry = registry;
+		manager.watchedLocations = new String[] { location };
+		manager.init();
+		manager.subscribe((previous, current) -> changes.add(new AppSettings[] { previous, current }));
+		registry.get(new FileSystemResource(file.toFile())).onReload(changed -> processed.add(changed.getVersion()));
+	}
+
+	@After
+	public void shutdown() throws Exception {
+		registry.shutdown();
+	}
+
+	@Test
+	public void publishesANewSnapshotAndNotifiesListeners() throws Exception {
+		AppSettings initial = manager.current();
+		assertEquals(ZoneId.of("UTC"), initial.getZoneId());
+		assertEquals(1000, initial.getPasswordIterations());
+
+		replace("app.name=demo\napp.zone=Asia/Shanghai\napp.password.iterations=20000\n");
+		AppSettings[] change = changes.poll(10, TimeUnit.SECONDS);
+		assertNotNull("no change published", change);
+		assertEquals(initial, change[0]);
+		assertEquals(initial.getRevision() + 1, change[1].getRevision());
+		assertEquals(ZoneId.of("Asia/Shanghai"), change[1].getZoneId());
+		assertEquals(20000, change[1].getPasswordIterations());
+		assertEquals(change[1], manager.current());
+		assertEquals("Asia/Shanghai", environment.getProperty("app.zone"));
+	}
+
+	@Test
+	public void invalidConfigurationIsRejectedAndReverted() throws Exception {
+		AppSettings initial = manager.current();
+		replace("app.name=demo\napp.zone=Not/AZone\napp.password.iterations=1000\n");
+		assertNotNull("reload was not processed", processed.poll(10, TimeUnit.SECONDS));
+		assertEquals(initial, manager.current());
+		assertEquals("UTC", environment.getProperty("app.zone"));
+		assertNull(changes.poll());
+
+		// 之后的正确配置照常发布，revision 只因为它加 1
+		replace("app.name=demo2\napp.zone=UTC\napp.password.iterations=1000\n");
+		AppSettings[] change = changes.poll(10, TimeUnit.SECONDS);
+		assertNotNull("no change published", change);
+		assertEquals(initial.getRevision() + 1, change[1].getRevision());
+		assertEquals("demo2", change[1].getName());
+	}
+
+	@Test
+	public void unchangedPropertiesDoNotNotify() throws Exception {
+		// 只改了注释，解析出的配置不变
+		replace("# touched\napp.name=demo\napp.zone=UTC\napp.password.iterations=1000\n");
+		assertNotNull("reload was not processed", processed.poll(10, TimeUnit.SECONDS));
+		assertNull(changes.poll());
+		assertEquals(1, manager.current().getRevision());
+	}
+
+	/**
+	 * 写到临时文件再原子替换，监视线程不会读到写了一半的内容。
+	 */
+	private void replace(String content) throws Exception {
+		Path temp = Files.write(file.resolveSibling("app.properties.tmp"), content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
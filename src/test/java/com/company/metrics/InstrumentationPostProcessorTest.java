@@ -0,0 +1,105 @@
+package com.company.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.Test;
+import org.springframework.aop.framework.Advised;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class InstrumentationPostProcessorTest {
+
+	@Test
+	public void recordsCallsAndRethrowsTheSameException() {
+		InstrumentationPostProcessor processor = processor();
+		Greeter greeter = (Greeter) processor.postProcessAfterInitialization(new Greeter(), "greeter");
+		assertEquals("hello bob", greeter.greet("bob"));
+		assertSame(Greeter.REJECTED, rejected(greeter));
+		assertEquals(2, stats(processor, "greeter.greet(String)").getCalls());
+		assertEquals(1, stats(processor, "greeter.greet(String)").getFailures());
+	}
+
+	@Test
+	public void advisorsAddedAfterProxyingAreNotBypassed() {
+		InstrumentationPostProcessor processor = processor();
+		Greeter greeter = (Greeter) processor.postProcessAfterInitialization(new Greeter(), "greeter");
+		AtomicInteger intercepted = new AtomicInteger();
+		((Advised) greeter).addAdvice((MethodInterceptor) invocation -> {
+			intercepted.incrementAndGet();
+			return invocation.proceed();
+		});
+		assertEquals("hello bob", greeter.greet("bob"));
+		assertSame(Greeter.REJECTED, rejected(greeter));
+		assertEquals(2, intercepted.get());
+		assertEquals(2, stats(processor, "greeter.greet(String)").getCalls());
+	}
+
+	@Test
+	public void failuresAreCountedByExceptionTypeOnly() {
+		InstrumentationPostProcessor processor = processor();
+		Greeter greeter = (Greeter) processor.postProcessAfterInitialization(new Greeter(), "greeter");
+		for (int i = 0; i < 100; i++) {
+			try {
+				greeter.greet("user" + i + "@example.com");
+			} catch (IllegalStateException e) {
+				// 每次的消息都不同
+			}
+		}
+		rejected(greeter);
+		MethodStats stats = stats(processor, "greeter.greet(String)");
+		assertEquals(2, stats.getFailuresByReason().size());
+		assertEquals(Long.valueOf(100), stats.getFailuresByReason().get("IllegalStateException"));
+		assertEquals(Long.valueOf(1), stats.getFailuresByReason().get("IllegalArgumentException"));
+	}
+
+	private static Throwable rejected(Greeter greeter) {
+		try {
+			greeter.greet(null);
+			fail("greet(null) should throw");
+			return null;
+		} catch (IllegalArgumentException e) {
+			return e;
+		}
+	}
+
+	private static InstrumentationPostProcessor processor() {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("app.metrics.instrumented-beans", "greeter");
+		properties.put("app.metrics.jmx", "false");
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+		InstrumentationPostProcessor processor = new InstrumentationPostProcessor();
+		processor.setEnvironment(environment);
+		return processor;
+	}
+
+	private static MethodStats stats(InstrumentationPostProcessor processor, String name) {
+		for (MethodStats stats : processor.getMetrics().getMethodStats()) {
+			if (stats.getName().equals(name)) {
+				return stats;
+			}
+		}
+		throw new AssertionError("no stats for " + name);
+	}
+
+	public static class Greeter {
+		static final IllegalArgumentException REJECTED = new IllegalArgumentException("no name");
+
+		public String greet(String name) {
+			if (name == null) {
+				throw REJECTED;
+			}
+			if (name.contains("@")) {
+				throw new IllegalStateException("no greeting for " + name);
+			}
+			return "hello " + name;
+		}
+	}
+}
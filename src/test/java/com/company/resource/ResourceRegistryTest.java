@@ -0,0 +1,84 @@
+package com.company.resource;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.UrlResource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class ResourceRegistryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ResourceRegistry registry = new ResourceRegistry();
+
+	@After
+	public void shutdown() throws Exception {
+		registry.shutdown();
+	}
+
+	@Test
+	public void sameFileIsCachedOnce() throws Exception {
+		Path file = write(folder.getRoot().toPath().resolve("logo.txt"), "hello");
+		CachedResource cached = registry.get(new FileSystemResource(file.toFile()));
+		assertEquals("hello", cached.asString());
+		assertSame(cached, registry.get(new UrlResource(file.toUri())));
+		assertSame(cached, registry.get(new FileSystemResource(file.getParent().resolve("./logo.txt").toFile())));
+	}
+
+	@Test
+	public void modifiedFileIsReloadedInPlace() throws Exception {
+		Path file = write(folder.getRoot().toPath().resolve("logo.txt"), "version one");
+		CachedResource cached = registry.get(new FileSystemResource(file.toFile()));
+		BlockingQueue<String> reloads = new LinkedBlockingQueue<>();
+		cached.onReload(changed -> reloads.add(changed.asString()));
+
+		replace(file, "version two, longer");
+		assertEquals("version two, longer", reloads.poll(10, TimeUnit.SECONDS));
+		assertEquals(2, cached.getVersion());
+		assertEquals("version two, longer", cached.asString());
+
+		// 原地改写（截断后再写）也能被发现
+		write(file, "3");
+		assertNotNull(poll(reloads, "3"));
+		assertEquals("3", cached.asString());
+	}
+
+	private static String poll(BlockingQueue<String> reloads, String expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		String text;
+		// 截断和写入可能各触发一次重新加载，等到最终的内容为止
+		while ((text = reloads.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+			if (text.equals(expected)) {
+				return text;
+			}
+		}
+		return null;
+	}
+
+	static Path write(Path file, String content) throws Exception {
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 像编辑器保存那样写到临时文件再原子替换，监视线程不会看到写了一半的内容。
+	 */
+	static void replace(Path file, String content) throws Exception {
+		Path temp = write(file.resolveSibling(file.getFileName() + ".tmp"), content);
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
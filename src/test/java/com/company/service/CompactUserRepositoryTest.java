@@ -0,0 +1,72 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactUserRepositoryTest {
+
+	@Test
+	public void removedUserCanRegisterAgain() {
+		CompactUserRepository repository = new CompactUserRepository(16, false);
+		User bob = repository.create("bob@example.com", "password", "Bob");
+		User alice = repository.create("alice@example.com", "password", "Alice");
+		repository.remove(bob);
+		assertNull(repository.findById(bob.getId()));
+		assertNull(repository.findByEmail("BOB@example.com"));
+		assertEquals("Alice", repository.findByEmail("alice@example.com").getName());
+
+		User again = repository.create("Bob@Example.com", "password", "Bob again");
+		assertNotNull(again);
+		assertEquals("Bob again", repository.findByEmail("bob@example.com").getName());
+		assertEquals(again.getId(), repository.findById(again.getId()).getId());
+		assertEquals(alice.getId(), repository.findById(alice.getId()).getId());
+		assertEquals(2, repository.size());
+	}
+
+	@Test
+	public void removeKeepsProbeChainsIntact() {
+		// 表很小、反复插入删除：探测链互相交错，并且会绕过表尾
+		CompactUserRepository repository = new CompactUserRepository(16, false);
+		Map<Long, User> expected = new HashMap<>();
+		Random random = new Random(42);
+		for (int step = 0; step < 20000; step++) {
+			long id = 1 + random.nextInt(200);
+			User current = expected.get(id);
+			if (current == null) {
+				User user = new User(id, "user" + id + "@example.com", "password", "User " + id);
+				assertTrue(repository.add(user));
+				expected.put(id, user);
+			} else {
+				repository.remove(current);
+				expected.remove(id);
+			}
+			if (step % 97 == 0) {
+				assertSameContents(expected, repository);
+			}
+		}
+		assertSameContents(expected, repository);
+	}
+
+	private static void assertSameContents(Map<Long, User> expected, CompactUserRepository repository) {
+		assertEquals(expected.size(), repository.size());
+		for (long id = 1; id <= 200; id++) {
+			User user = expected.get(id);
+			String email = "user" + id + "@example.com";
+			if (user == null) {
+				assertNull(repository.findById(id));
+				assertNull(repository.findByEmail(email));
+			} else {
+				assertEquals(id, repository.findById(id).getId());
+				assertEquals(id, repository.findByEmail(email).getId());
+			}
+		}
+	}
+}
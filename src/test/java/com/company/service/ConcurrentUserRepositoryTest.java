@@ -0,0 +1,144 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentUserRepositoryTest {
+
+	private static final int THREADS = 8;
+
+	@Test
+	public void concurrentCreateWithSameEmailRegistersExactlyOnce() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			ConcurrentUserRepository repository = new ConcurrentUserRepository();
+			String email = "race" + round + "@example.com";
+			List<User> created = runConcurrently(i -> repository.create(
+					i % 2 == 0 ? email : email.toUpperCase(), "password", "User" + i));
+			int winners = 0;
+			for (User user : created) {
+				if (user != null) {
+					winners++;
+					assertSame(user, repository.findByEmail(email));
+					assertSame(user, repository.findById(user.getId()));
+				}
+			}
+			assertEquals(1, winners);
+			assertEquals(1, repository.size());
+		}
+	}
+
+	@Test
+	public void concurrentCreateAssignsUniqueIds() throws Exception {
+		ConcurrentUserRepository repository = new ConcurrentUserRepository();
+		List<User> created = runConcurrently(i -> {
+			User last = null;
+			for (int n = 0; n < 1000; n++) {
+				last = repository.create("user" + i + "_" + n + "@example.com", "password", "User");
+				assertNotNull(last);
+			}
+			return last;
+		});
+		assertEquals(THREADS, created.size());
+		assertEquals(THREADS * 1000, repository.size());
+		Set<Long> ids = new HashSet<>();
+		for (User user : repository.findAll()) {
+			assertTrue("duplicate id " + user.getId(), ids.add(user.getId()));
+		}
+	}
+
+	@Test
+	public void addRejectsDuplicateIdOrEmail() {
+		ConcurrentUserRepository repository = new ConcurrentUserRepository();
+		assertTrue(repository.add(new User(10, "bob@example.com", "password", "Bob")));
+		assertFalse(repository.add(new User(10, "other@example.com", "password", "Other")));
+		assertFalse(repository.add(new User(11, "BOB@example.com", "password", "Bob")));
+		// 因 email 重复被拒绝的用户不能残留在 id 索引中
+		assertNull(repository.findById(11));
+		assertEquals(1, repository.size());
+		// add 把 id 序列推进到已有的最大 id 之后
+		assertEquals(11, repository.create("alice@example.com", "password", "Alice").getId());
+	}
+
+	@Test
+	public void concurrentCreateNeverOverwritesAnAddedUser() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			ConcurrentUserRepository repository = new ConcurrentUserRepository();
+			// 一半线程用 add 占用序列前面的 id，另一半同时 create，两边的 id 会撞上
+			List<Integer> counts = runConcurrently(i -> {
+				int succeeded = 0;
+				for (int n = 0; n < 500; n++) {
+					boolean ok = i % 2 == 0
+							? repository.add(new User(n + 1, "added" + i + "_" + n + "@example.com", "password", "A"))
+							: repository.create("created" + i + "_" + n + "@example.com", "password", "C") != null;
+					succeeded += ok ? 1 : 0;
+				}
+				return succeeded;
+			});
+			int succeeded = 0;
+			for (int count : counts) {
+				succeeded += count;
+			}
+			assertEquals(succeeded, repository.size());
+			for (User user : repository.findAll()) {
+				assertSame(user, repository.findByEmail(user.getEmail()));
+			}
+		}
+	}
+
+	@Test
+	public void removeOnlyRemovesTheSameUser() {
+		ConcurrentUserRepository repository = new ConcurrentUserRepository();
+		User bob = repository.create("bob@example.com", "password", "Bob");
+		repository.remove(new User(bob.getId(), "bob@example.com", "password", "Bob"));
+		assertSame(bob, repository.findByEmail("bob@example.com"));
+		repository.remove(bob);
+		assertNull(repository.findByEmail("bob@example.com"));
+		assertNull(repository.findById(bob.getId()));
+		User again = repository.create("Bob@Example.com", "password", "Bob");
+		assertNotNull(again);
+		assertSame(again, repository.findByEmail("bob@example.com"));
+	}
+
+	private static <T> List<T> runConcurrently(Task<T> task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<T>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				int index = i;
+				futures.add(executor.submit((Callable<T>) () -> {
+					start.await();
+					return task.run(index);
+				}));
+			}
+			start.countDown();
+			List<T> results = new ArrayList<>();
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private interface Task<T> {
+		T run(int thread) throws Exception;
+	}
+}
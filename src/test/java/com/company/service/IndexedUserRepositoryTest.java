@@ -0,0 +1,193 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedUserRepositoryTest {
+
+	@Test
+	public void emptyPrefixReturnsEveryoneInOrder() {
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository());
+		repository.create("carol@example.com", "password", "Carol");
+		repository.create("alice@example.com", "password", "alice");
+		repository.create("bob@example.com", "password", "Bob");
+		assertEquals(list("alice@example.com", "bob@example.com", "carol@example.com"),
+				emails(repository.findByEmailPrefix("", 10).collect(Collectors.toList())));
+		assertEquals(list("alice", "Bob", "Carol"),
+				names(repository.findByNamePrefix("", 10).collect(Collectors.toList())));
+		assertEquals(2, repository.findByEmailPrefix("", 2).count());
+		assertEquals(0, repository.findByNamePrefix("", 0).count());
+	}
+
+	@Test
+	public void prefixesIgnoreCase() {
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository());
+		repository.create("Alice.Smith@Example.com", "password", "ALICE Smith");
+		repository.create("alicia@example.com", "password", "Alicia");
+		repository.create("bob@example.com", "password", "Bob");
+		assertEquals(list("Alice.Smith@Example.com", "alicia@example.com"),
+				emails(repository.findByEmailPrefix("ALI", 10).collect(Collectors.toList())));
+		assertEquals(list("Alice.Smith@Example.com"),
+				emails(repository.findByEmailPrefix("alice.s", 10).collect(Collectors.toList())));
+		assertEquals(list("ALICE Smith"), names(repository.findByNamePrefix("alice s", 10).collect(Collectors.toList())));
+		assertEquals(list("ALICE Smith", "Alicia"), names(repository.findByNamePrefix("aLi", 10).collect(Collectors.toList())));
+	}
+
+	@Test
+	public void prefixEndingInMaxCharHasTheRightUpperBound() {
+		char max = Character.MAX_VALUE;
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository());
+		repository.create("b@example.com", "password", "b");
+		repository.create("b" + max + "@example.com", "password", "b" + max);
+		repository.create("b" + max + "z@example.com", "password", "b" + max + "z");
+		repository.create("c@example.com", "password", "c");
+		repository.create(max + "@example.com", "password", String.valueOf(max));
+		repository.create(max + "" + max + "@example.com", "password", max + "" + max);
+		// "b￿" 的上界是 "c"，不能把 "c" 算进去
+		assertEquals(list("b" + max, "b" + max + "z"),
+				names(repository.findByNamePrefix("b" + max, 10).collect(Collectors.toList())));
+		assertEquals(list("b" + max + "@example.com", "b" + max + "z@example.com"),
+				emails(repository.findByEmailPrefix("b" + max, 10).collect(Collectors.toList())));
+		// 全是 Character.MAX_VALUE 时没有上界
+		assertEquals(list(String.valueOf(max), max + "" + max),
+				names(repository.findByNamePrefix(String.valueOf(max), 10).collect(Collectors.toList())));
+		assertEquals(list(max + "" + max + "@example.com"),
+				emails(repository.findByEmailPrefix(max + "" + max, 10).collect(Collectors.toList())));
+	}
+
+	@Test
+	public void cursorPagingSeesEveryStableUserOnceDuringChurn() throws Exception {
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository());
+		Set<String> stable = new HashSet<>();
+		for (int i = 0; i < 2000; i++) {
+			String email = String.format("user%05d@example.com", i * 2);
+			stable.add(email);
+			repository.create(email, "password", "Stable");
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		AtomicBoolean stop = new AtomicBoolean();
+		CountDownLatch started = new CountDownLatch(4);
+		List<Future<?>> churn = new ArrayList<>();
+		try {
+			for (int t = 0; t < 4; t++) {
+				int thread = t;
+				churn.add(executor.submit(() -> {
+					started.countDown();
+					// 在稳定用户之间（奇数编号）以及最前、最后不断注册、删除
+					for (int n = 0; !stop.get(); n++) {
+						int slot = (n * 4 + thread) % 2002;
+						String email = slot == 2000 ? "a" + thread + "@example.com"
+								: slot == 2001 ? "zzz" + thread + "@example.com"
+								: String.format("user%05d@example.com", slot * 2 + 1);
+						User user = repository.create(email, "password", "Churn");
+						if (user != null) {
+							repository.remove(user);
+						}
+					}
+					return null;
+				}));
+			}
+			started.await();
+			for (int round = 0; round < 5; round++) {
+				Set<String> seen = new HashSet<>();
+				String cursor = null;
+				String previous = "";
+				while (true) {
+					List<User> page = repository.streamAll(cursor, 97).collect(Collectors.toList());
+					if (page.isEmpty()) {
+						break;
+					}
+					for (User user : page) {
+						String folded = UserRepository.foldEmail(user.getEmail());
+						assertTrue(previous + " then " + folded, folded.compareTo(previous) > 0);
+						assertTrue("duplicate " + folded, seen.add(folded));
+						previous = folded;
+					}
+					cursor = page.get(page.size() - 1).getEmail();
+				}
+				assertTrue(seen.containsAll(stable));
+			}
+		} finally {
+			stop.set(true);
+			for (Future<?> future : churn) {
+				future.get();
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void unindexKeepsAnEmailRegisteredAgainByAnotherUser() {
+		ConcurrentUserRepository store = new ConcurrentUserRepository();
+		IndexedUserRepository[] holder = new IndexedUserRepository[1];
+		User[] again = new User[1];
+		// 在底层删除之后、更新索引之前，同一个 email 被重新注册
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository() {
+			@Override
+			public void remove(User user) {
+				store.remove(user);
+				again[0] = holder[0].create(user.getEmail(), "password", "Bob Again");
+			}
+
+			@Override
+			public User create(String email, String password, String name) {
+				return store.create(email, password, name);
+			}
+
+			@Override
+			public User findById(long id) {
+				return store.findById(id);
+			}
+		});
+		holder[0] = repository;
+		User bob = repository.create("bob@example.com", "password", "Bob");
+		repository.remove(bob);
+		assertNotNull(again[0]);
+		assertEquals(list("bob@example.com"), emails(repository.findByEmailPrefix("bob", 10).collect(Collectors.toList())));
+		assertEquals(list("Bob Again"), names(repository.findByNamePrefix("bob", 10).collect(Collectors.toList())));
+	}
+
+	@Test
+	public void removingAStaleCopyKeepsTheUserThatWasAddedBack() {
+		IndexedUserRepository repository = new IndexedUserRepository(new ConcurrentUserRepository());
+		User bob = repository.create("bob@example.com", "password", "Bob");
+		repository.remove(bob);
+		// 同一个 id 和 email 重新加回（例如批量注册回滚后重试），旧对象上的 remove 不能把它从索引中删掉
+		User restored = new User(bob.getId(), bob.getEmail(), "password", bob.getName());
+		assertTrue(repository.add(restored));
+		repository.remove(bob);
+		assertEquals(1, repository.findByEmailPrefix("bob", 10).count());
+		assertEquals(1, repository.findByNamePrefix("bob", 10).count());
+		assertEquals(1, repository.streamAll(null, 10).count());
+	}
+
+	private static List<String> list(String... values) {
+		List<String> list = new ArrayList<>();
+		for (String value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	private static List<String> emails(List<User> users) {
+		return users.stream().map(User::getEmail).collect(Collectors.toList());
+	}
+
+	private static List<String> names(List<User> users) {
+		return users.stream().map(User::getName).collect(Collectors.toList());
+	}
+}
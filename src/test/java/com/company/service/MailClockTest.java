@@ -0,0 +1,89 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MailClockTest {
+
+	private static final ZoneId[] ZONES = {
+			ZoneOffset.UTC, ZoneOffset.ofHours(8), ZoneOffset.ofHoursMinutes(-3, -30),
+			ZoneId.of("UTC"), ZoneId.of("Asia/Shanghai"), ZoneId.of("America/New_York") };
+
+	@Test
+	public void matchesIsoZonedDateTime() {
+		Instant base = Instant.parse("2021-03-14T06:59:58Z");
+		for (ZoneId zone : ZONES) {
+			MailClock clock = new MailClock(zone);
+			// 整秒、各种毫秒位数，以及跨越秒边界
+			for (long offset : new long[] { 0, 1, 10, 100, 120, 123, 500, 999, 1000, 1001, 1999, 2000, 2500 }) {
+				assertFormat(clock, base.plusMillis(offset));
+			}
+			// 1970 年之前：毫秒部分要按 floorMod 取
+			assertFormat(clock, Instant.parse("1969-12-31T23:59:59.250Z"));
+			assertFormat(clock, Instant.ofEpochMilli(-1));
+		}
+	}
+
+	@Test
+	public void offsetChangesAcrossDaylightSavingBoundary() {
+		// 2021-03-14 07:00Z 纽约从 -05:00 切到 -04:00
+		MailClock clock = new MailClock(ZoneId.of("America/New_York"));
+		Instant switchAt = Instant.parse("2021-03-14T07:00:00Z");
+		assertFormat(clock, switchAt.minusMillis(1));
+		assertFormat(clock, switchAt);
+		assertEquals("2021-03-14T01:59:59.999-05:00[America/New_York]",
+				clock.format(switchAt.minusMillis(1).toEpochMilli()));
+		assertEquals("2021-03-14T03:00:00-04:00[America/New_York]", clock.format(switchAt.toEpochMilli()));
+	}
+
+	@Test
+	public void nanosecondTimestampsAreFormattedAtMillisecondPrecision() {
+		for (ZoneId zone : ZONES) {
+			MailClock clock = new MailClock(zone);
+			for (String time : new String[] { "2021-06-01T12:00:00.000000001Z", "2021-06-01T12:00:00.123456789Z",
+					"2021-06-01T12:00:00.999999999Z" }) {
+				Instant instant = Instant.parse(time);
+				assertEquals(expected(instant.truncatedTo(ChronoUnit.MILLIS), zone),
+						clock.format(instant.toEpochMilli()));
+			}
+		}
+	}
+
+	@Test
+	public void sameMillisecondReturnsTheCachedString() {
+		MailClock clock = new MailClock(ZoneId.of("Asia/Shanghai"));
+		long now = Instant.parse("2021-06-01T12:00:00.123Z").toEpochMilli();
+		assertSame(clock.format(now), clock.format(now));
+	}
+
+	@Test
+	public void templateRendersTheClockOutput() {
+		MailClock clock = new MailClock(ZoneId.of("Asia/Shanghai"));
+		Instant instant = Instant.parse("2021-06-01T12:00:00.120Z");
+		User user = new User(1, "bob@example.com", "password", "Bob");
+		StringBuilder out = new StringBuilder();
+		new MailTemplate("Hi {name} <{email}>, at {time}.").render(
+				new Mail(Mail.Kind.LOGIN, user, instant.toEpochMilli()), clock, out);
+		assertEquals("Hi Bob <bob@example.com>, at " + expected(instant, clock.getZoneId()) + ".", out.toString());
+	}
+
+	private static void assertFormat(MailClock clock, Instant instant) {
+		String expected = expected(instant, clock.getZoneId());
+		assertEquals(expected, clock.format(instant.toEpochMilli()));
+		StringBuilder sb = new StringBuilder();
+		clock.appendTo(sb, instant.toEpochMilli());
+		assertEquals(expected, sb.toString());
+	}
+
+	private static String expected(Instant instant, ZoneId zone) {
+		return instant.atZone(zone).format(DateTimeFormatter.ISO_ZONED_DATE_TIME);
+	}
+}
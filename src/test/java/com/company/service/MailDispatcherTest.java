@@ -0,0 +1,80 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class MailDispatcherTest {
+
+	private static final User USER = new User(1, "bob@example.com", "password", "Bob");
+
+	@Test
+	public void noMailIsLostWhenShutdownRacesWithSubmit() throws Exception {
+		for (MailDispatcher.OverflowPolicy policy : new MailDispatcher.OverflowPolicy[] {
+				MailDispatcher.OverflowPolicy.BLOCK, MailDispatcher.OverflowPolicy.CALLER_RUNS }) {
+			for (int round = 0; round < 20; round++) {
+				AtomicInteger delivered = new AtomicInteger();
+				// 容量很小、投递很慢，让 submit 经常遇到满队列
+				MailDispatcher dispatcher = new MailDispatcher(4, 2, 2, policy, mails -> {
+					delivered.addAndGet(mails.size());
+					sleep(1);
+				});
+				ExecutorService submitters = Executors.newFixedThreadPool(4);
+				AtomicBoolean stop = new AtomicBoolean();
+				AtomicInteger submitted = new AtomicInteger();
+				CountDownLatch started = new CountDownLatch(4);
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t < 4; t++) {
+					futures.add(submitters.submit(() -> {
+						started.countDown();
+						while (!stop.get()) {
+							dispatcher.submit(new Mail(Mail.Kind.LOGIN, USER, 0));
+							submitted.incrementAndGet();
+						}
+					}));
+				}
+				started.await();
+				sleep(5);
+				dispatcher.shutdown(5000);
+				stop.set(true);
+				for (Future<?> future : futures) {
+					// 被阻塞的 submit 在关闭后必须返回
+					future.get(5, TimeUnit.SECONDS);
+				}
+				submitters.shutdown();
+				assertEquals(policy + " round " + round, submitted.get(), delivered.get());
+				assertEquals(0, dispatcher.getQueueSize());
+				assertEquals(0, dispatcher.getDroppedCount());
+			}
+		}
+	}
+
+	@Test
+	public void submitAfterShutdownDeliversOnCallerThread() {
+		List<String> threads = new ArrayList<>();
+		MailDispatcher dispatcher = new MailDispatcher(16, 1, 8, MailDispatcher.OverflowPolicy.BLOCK,
+				mails -> threads.add(Thread.currentThread().getName()));
+		dispatcher.shutdown(1000);
+		dispatcher.submit(new Mail(Mail.Kind.REGISTRATION, USER, 0));
+		assertEquals(1, threads.size());
+		assertEquals(Thread.currentThread().getName(), threads.get(0));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
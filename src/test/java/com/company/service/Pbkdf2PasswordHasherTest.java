@@ -0,0 +1,45 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Pbkdf2PasswordHasherTest {
+
+	private final Pbkdf2PasswordHasher hasher = hasher(1000);
+
+	@Test
+	public void verifiesHashedAndLegacyPasswords() {
+		String encoded = hasher.hash("secret");
+		assertTrue(hasher.verify("secret", encoded));
+		assertFalse(hasher.verify("Secret", encoded));
+		assertFalse(hasher.needsRehash(encoded));
+		assertTrue(hasher.verify("password", "password"));
+		assertTrue(hasher.needsRehash("password"));
+	}
+
+	@Test
+	public void oldCostStillVerifies() {
+		String encoded = hasher.hash("secret");
+		assertTrue(hasher(2000).verify("secret", encoded));
+	}
+
+	@Test
+	public void nullOrMalformedInputFailsInsteadOfThrowing() {
+		String encoded = hasher.hash("secret");
+		assertFalse(hasher.verify(null, encoded));
+		assertFalse(hasher.verify("secret", null));
+		assertFalse(hasher.verify("secret", "pbkdf2$abc$c2FsdA$aGFzaA"));
+		assertFalse(hasher.verify("secret", "pbkdf2$0$c2FsdA$aGFzaA"));
+		assertFalse(hasher.verify("secret", "pbkdf2$1000$not*base64$aGFzaA"));
+		assertFalse(hasher.verify("secret", "pbkdf2$1000$$aGFzaA"));
+		assertFalse(hasher.verify("secret", "pbkdf2$1000$c2FsdA"));
+	}
+
+	private static Pbkdf2PasswordHasher hasher(int iterations) {
+		Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher();
+		hasher.iterations = iterations;
+		return hasher;
+	}
+}
@@ -0,0 +1,93 @@
+package com.company.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowCountersTest {
+
+	private static final long WINDOW = 1000;
+	// 对齐到窗口边界，方便计算窗口内已过去的比例
+	private static final long T = 1_700_000_000_000L;
+
+	@Test
+	public void countsWithinOneWindow() {
+		SlidingWindowCounters counters = new SlidingWindowCounters(64, WINDOW);
+		assertEquals(0, counters.estimate("bob", T));
+		assertEquals(1, counters.increment("bob", T));
+		assertEquals(2, counters.increment("bob", T + 10));
+		assertEquals(3, counters.increment("bob", T + 999));
+		assertEquals(3, counters.estimate("bob", T + 999));
+		assertEquals(0, counters.estimate("alice", T + 999));
+	}
+
+	@Test
+	public void previousWindowIsWeightedByTheRemainingFraction() {
+		SlidingWindowCounters counters = new SlidingWindowCounters(64, WINDOW);
+		for (int i = 0; i < 10; i++) {
+			counters.increment("bob", T + 500);
+		}
+		// 进入下一个窗口：上一个窗口的 10 次按剩余比例计入
+		assertEquals(10, counters.estimate("bob", T + WINDOW));
+		assertEquals(7, counters.estimate("bob", T + WINDOW + 250));
+		assertEquals(2, counters.estimate("bob", T + WINDOW + 750));
+		// 当前窗口的计数全部计入：2 + 10 * 0.25
+		assertEquals(1 + 2, counters.increment("bob", T + WINDOW + 750));
+		assertEquals(2 + 2, counters.increment("bob", T + WINDOW + 750));
+		// 再下一个窗口：只剩上一个窗口（T + WINDOW）的 2 次
+		assertEquals(2, counters.estimate("bob", T + 2 * WINDOW));
+		assertEquals(1, counters.estimate("bob", T + 2 * WINDOW + 500));
+	}
+
+	@Test
+	public void countsExpireAfterTwoWindows() {
+		SlidingWindowCounters counters = new SlidingWindowCounters(64, WINDOW);
+		for (int i = 0; i < 5; i++) {
+			counters.increment("bob", T);
+		}
+		assertEquals(0, counters.estimate("bob", T + 2 * WINDOW));
+		assertEquals(0, counters.estimate("bob", T + 10 * WINDOW));
+		// 过期之后重新从 1 开始
+		assertEquals(1, counters.increment("bob", T + 10 * WINDOW));
+	}
+
+	@Test
+	public void evictsTheLeastUsedEntryAndKeepsMemoryFixed() {
+		SlidingWindowCounters counters = new SlidingWindowCounters(16, WINDOW);
+		int capacity = counters.capacity();
+		assertEquals(16, capacity);
+		for (int i = 0; i < 50; i++) {
+			counters.increment("hot", T);
+		}
+		for (int i = 0; i < 10_000; i++) {
+			counters.increment("cold" + i, T + 1);
+		}
+		// 冷 key 只会互相淘汰，不会挤掉计数更多的 key（fingerprint 碰撞只会让计数偏大）
+		assertTrue(counters.estimate("hot", T + 1) >= 50);
+		assertEquals(capacity, counters.capacity());
+		int tracked = 0;
+		for (int i = 0; i < 10_000; i++) {
+			if (counters.estimate("cold" + i, T + 1) > 0) {
+				tracked++;
+			}
+		}
+		// 表满之后只能跟踪 capacity 个左右的 key，多出来的只可能是 fingerprint 碰撞
+		assertTrue("tracked " + tracked, tracked >= capacity - 1 && tracked < capacity + 16);
+	}
+
+	@Test
+	public void resetClearsOnlyThatKey() {
+		SlidingWindowCounters counters = new SlidingWindowCounters(64, WINDOW);
+		counters.increment("bob", T);
+		counters.increment("bob", T);
+		counters.increment("alice", T);
+		counters.reset("bob");
+		assertEquals(0, counters.estimate("bob", T));
+		assertEquals(1, counters.estimate("alice", T));
+		assertEquals(1, counters.increment("bob", T));
+		// 没有计数的 key 上 reset 什么都不做
+		counters.reset("carol");
+		assertEquals(1, counters.estimate("alice", T));
+	}
+}
@@ -0,0 +1,205 @@
+package com.company.service;
+
+import com.company.service.store.UserStore;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class UserServiceTest {
+
+	private final CountingHasher hasher = new CountingHasher();
+	private final UserRepository repository = new ConcurrentUserRepository();
+	private final UserService service = service(repository, hasher, new UserStore());
+
+	@After
+	public void shutdown() {
+		service.shutdown();
+	}
+
+	@Test
+	public void unknownEmailStillRunsAPasswordCheck() {
+		service.register("bob@example.com", "secret", "Bob");
+		int verified = hasher.verified.get();
+		assertLoginFails("nobody@example.com", "secret");
+		assertEquals(verified + 1, hasher.verified.get());
+		assertLoginFails("bob@example.com", "wrong");
+		assertEquals(verified + 2, hasher.verified.get());
+		assertEquals("Bob", service.login("BOB@example.com", "secret").getName());
+	}
+
+	@Test
+	public void duplicateRegistrationIsRejectedBeforeHashing() {
+		service.register("bob@example.com", "secret", "Bob");
+		int hashed = hasher.hashed.get();
+		try {
+			service.register("Bob@Example.com", "other", "Bob 2");
+			fail("duplicate email should be rejected");
+		} catch (RuntimeException e) {
+			assertEquals("email exist.", e.getMessage());
+		}
+		assertEquals(hashed, hasher.hashed.get());
+		assertEquals(1, repository.size());
+	}
+
+	@Test
+	public void registerAllKeepsTheFirstOfDuplicateEmailsAcrossChunks() {
+		List<Registration> requests = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			requests.add(new Registration("user" + i + "@example.com", "password", "User " + i));
+		}
+		// 同一块中的重复（忽略大小写），以及正好跨过第一块末尾（4095 / 4096）的重复
+		requests.set(10, new Registration("USER5@example.com", "password", "Duplicate"));
+		requests.set(4096, new Registration("user4095@example.com", "password", "Next chunk"));
+		requests.set(20, null);
+		requests.set(21, new Registration("", "password", "Invalid"));
+		repository.create("user9999@example.com", "password", "Existing");
+
+		BulkRegistration result = service.registerAll(requests.stream());
+		assertEquals(9_995, result.getRegistered());
+		assertEquals(1, result.getDuplicateInBatch());
+		assertEquals(2, result.getAlreadyExists());
+		assertEquals(2, result.getInvalid());
+		assertEquals(0, result.getFailed());
+		assertEquals(9_996, repository.size());
+		assertEquals("User 5", repository.findByEmail("user5@example.com").getName());
+		assertEquals("User 4095", repository.findByEmail("user4095@example.com").getName());
+		assertEquals("Existing", repository.findByEmail("user9999@example.com").getName());
+	}
+
+	@Test
+	public void registerAllRollsBackUsersThatWereNotPersisted() {
+		UserStore store = new UserStore() {
+			@Override
+			public List<User> appendAll(List<User> users) {
+				List<User> failed = new ArrayList<>();
+				for (User user : users) {
+					if (user.getName().endsWith("7")) {
+						failed.add(user);
+					}
+				}
+				return failed;
+			}
+		};
+		UserService failing = service(repository, hasher, store);
+		try {
+			List<Registration> requests = new ArrayList<>();
+			for (int i = 0; i < 5_000; i++) {
+				requests.add(new Registration("user" + i + "@example.com", "password", "User " + i));
+			}
+			BulkRegistration result = failing.registerAll(requests.stream());
+			assertEquals(500, result.getFailed());
+			assertEquals(4_500, result.getRegistered());
+			assertEquals(4_500, repository.size());
+			assertNull(repository.findByEmail("user7@example.com"));
+			assertNotNull(repository.findByEmail("user8@example.com"));
+		} finally {
+			failing.shutdown();
+		}
+	}
+
+	@Test
+	public void registerAllRollsBackTheChunkWhenTheStoreThrows() {
+		UserStore store = new UserStore() {
+			@Override
+			public List<User> appendAll(List<User> users) {
+				throw new IllegalStateException("user store is shut down");
+			}
+		};
+		UserService failing = service(repository, hasher, store);
+		try {
+			failing.registerAll(Stream.of(new Registration("bob@example.com", "password", "Bob")));
+			fail("registerAll should fail");
+		} catch (IllegalStateException e) {
+			assertEquals(0, repository.size());
+		} finally {
+			failing.shutdown();
+		}
+	}
+
+	@Test
+	public void getUsersKeepsOrderAndReturnsNullForMissingIds() {
+		List<Registration> requests = new ArrayList<>();
+		for (int i = 0; i < 3_000; i++) {
+			requests.add(new Registration("user" + i + "@example.com", "password", "User " + i));
+		}
+		service.registerAll(requests.stream());
+		// 少于和多于并行阈值（1024）两种情况
+		for (int size : new int[] { 10, 5_000 }) {
+			long[] ids = new long[size];
+			for (int i = 0; i < size; i++) {
+				ids[i] = i % 3 == 0 ? -i : size - i;
+			}
+			User[] users = service.getUsers(ids);
+			assertEquals(size, users.length);
+			for (int i = 0; i < size; i++) {
+				if (ids[i] <= 0 || ids[i] > 3_000) {
+					assertNull("id " + ids[i], users[i]);
+				} else {
+					assertEquals(ids[i], users[i].getId());
+				}
+			}
+		}
+	}
+
+	private void assertLoginFails(String email, String password) {
+		try {
+			service.login(email, password);
+			fail("login should fail");
+		} catch (LoginFailedException e) {
+			assertSame(LoginFailedException.FAILED, e);
+		}
+	}
+
+	/**
+	 * 手工装配一个 UserService：同步邮件、不限流、凭据缓存关闭，userStore 由调用方提供。
+	 */
+	static UserService service(UserRepository repository, PasswordHasher hasher, UserStore store) {
+		MailService mailService = new MailService();
+		try {
+			mailService.init();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		CredentialCache credentialCache = new CredentialCache();
+		credentialCache.maximumSize = 0;
+		credentialCache.ttlSeconds = 60;
+		credentialCache.init();
+		LoginThrottle loginThrottle = new LoginThrottle();
+		loginThrottle.enabled = false;
+		UserService service = new UserService(mailService, repository, store, hasher, credentialCache, loginThrottle);
+		service.bulkParallelism = 4;
+		service.init();
+		return service;
+	}
+
+	/**
+	 * 只数调用次数的哈希，测试里不必真的跑 PBKDF2。
+	 */
+	static final class CountingHasher implements PasswordHasher {
+		final AtomicInteger hashed = new AtomicInteger();
+		final AtomicInteger verified = new AtomicInteger();
+
+		@Override
+		public String hash(String password) {
+			hashed.incrementAndGet();
+			return "hashed:" + password;
+		}
+
+		@Override
+		public boolean verify(String password, String encoded) {
+			verified.incrementAndGet();
+			return password != null && ("hashed:" + password).equals(encoded);
+		}
+	}
+}
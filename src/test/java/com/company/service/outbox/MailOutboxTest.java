@@ -0,0 +1,123 @@
+package com.company.service.outbox;
+
+import com.company.service.Mail;
+import com.company.service.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MailOutboxTest {
+
+	private static final int MAGIC = 0x4d4f5842;
+	private static final int SEGMENT_HEADER_BYTES = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void tornTailIsSkippedAndLaterSegmentsAreStillDelivered() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		// 上次运行崩溃在第 1 段写到一半的第 4 条记录上，之后重启又写了第 2 段
+		byte[] torn = MailRecords.encode(mail(4));
+		writeSegment(dir, 1, records(1, 3), Arrays.copyOf(torn, torn.length / 2));
+		writeSegment(dir, 2, records(5, 6));
+
+		List<Long> delivered = deliverAll(dir, 5);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 5L, 6L), delivered);
+		assertFalse(Files.exists(segmentPath(dir, 1)));
+		assertFalse(Files.exists(segmentPath(dir, 2)));
+
+		// 已经 ack 的邮件重启后不会再投递
+		assertEquals(Collections.emptyList(), deliverAll(dir, 0));
+	}
+
+	@Test
+	public void deliveryResumesFromTheAckedOffset() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		writeSegment(dir, 7, records(1, 5));
+		long offset = SEGMENT_HEADER_BYTES + MailRecords.encode(mail(1)).length + MailRecords.encode(mail(2)).length;
+		writeAck(dir, 7, offset);
+
+		assertEquals(Arrays.asList(3L, 4L, 5L), deliverAll(dir, 3));
+		assertEquals(Collections.emptyList(), deliverAll(dir, 0));
+	}
+
+	@Test
+	public void corruptAckRedeliversFromTheOldestSegment() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		writeSegment(dir, 3, records(1, 2));
+		writeSegment(dir, 4, records(3, 3));
+		Files.write(dir.resolve("outbox.ack"), new byte[20]);
+
+		// at-least-once：ack 损坏时宁可重复投递也不丢
+		assertEquals(Arrays.asList(1L, 2L, 3L), deliverAll(dir, 3));
+	}
+
+	/**
+	 * 打开 outbox，等到投递了 expected 封（expected 为 0 时等一小段时间）后关闭，返回投递的用户 id。
+	 */
+	private static List<Long> deliverAll(Path dir, int expected) throws Exception {
+		List<Long> delivered = Collections.synchronizedList(new ArrayList<>());
+		MailOutbox outbox = new MailOutbox(dir, 1 << 20, 1, 16,
+				mails -> mails.forEach(mail -> delivered.add(mail.getUser().getId())));
+		long deadline = System.currentTimeMillis() + (expected == 0 ? 200 : 5000);
+		while (System.currentTimeMillis() < deadline && (expected == 0 || delivered.size() < expected)) {
+			Thread.sleep(10);
+		}
+		outbox.close(1000);
+		assertTrue("delivered " + delivered, delivered.size() >= expected);
+		return new ArrayList<>(delivered);
+	}
+
+	private static Mail mail(long id) {
+		return new Mail(Mail.Kind.REGISTRATION, new User(id, "user" + id + "@example.com", "password", "User " + id), id);
+	}
+
+	private static byte[] records(long from, long to) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (long id = from; id <= to; id++) {
+			byte[] record = MailRecords.encode(mail(id));
+			out.write(record, 0, record.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static void writeSegment(Path dir, long id, byte[]... contents) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+		header.putInt(MAGIC).putInt(0).putLong(id);
+		out.write(header.array(), 0, SEGMENT_HEADER_BYTES);
+		for (byte[] content : contents) {
+			out.write(content, 0, content.length);
+		}
+		Files.write(segmentPath(dir, id), out.toByteArray());
+	}
+
+	private static void writeAck(Path dir, long segment, long offset) throws IOException {
+		ByteBuffer ack = ByteBuffer.allocate(20);
+		ack.putLong(segment).putLong(offset);
+		CRC32 crc = new CRC32();
+		crc.update(ack.array(), 0, 16);
+		ack.putInt((int) crc.getValue());
+		Files.write(dir.resolve("outbox.ack"), ack.array());
+	}
+
+	private static Path segmentPath(Path dir, long id) {
+		return dir.resolve(String.format("outbox-%016d.seg", id));
+	}
+}
@@ -0,0 +1,206 @@
+package com.company.service.shard;
+
+import com.company.service.CompactUserRepository;
+import com.company.service.ConcurrentUserRepository;
+import com.company.service.User;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedUserRepositoryTest {
+
+	private static final int USERS = 3000;
+
+	@Test
+	public void addShardMovesUsersAndKeepsThemReachable() {
+		ShardedUserRepository repository = new ShardedUserRepository(
+				Arrays.asList(localShard(), localShard()));
+		createUsers(repository);
+		LocalUserShard added = localShard();
+		repository.addShard(added);
+
+		assertEquals(3, repository.getShardCount());
+		assertEquals(USERS, repository.size());
+		assertEquals(USERS, IntStream.of(repository.shardSizes()).sum());
+		// 一致性哈希：新分片大约接管 1/3
+		assertTrue(added.size() > USERS / 6 && added.size() < USERS / 2);
+		assertAllReachable(repository);
+	}
+
+	@Test
+	public void failedCopyIsRolledBack() {
+		ShardedUserRepository repository = new ShardedUserRepository(
+				Arrays.asList(localShard(), localShard()));
+		createUsers(repository);
+		int[] before = repository.shardSizes();
+		// 第二批复制时失败：第一批已经复制过去
+		LocalUserShard failing = new LocalUserShard(new ConcurrentUserRepository()) {
+			private int calls;
+
+			@Override
+			public boolean[] addAll(List<User> users) {
+				if (++calls == 2) {
+					throw new IllegalStateException("disk full");
+				}
+				return super.addAll(users);
+			}
+		};
+		try {
+			repository.addShard(failing);
+			fail("addShard should fail");
+		} catch (IllegalStateException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertEquals(0, failing.size());
+		assertEquals(2, repository.getShardCount());
+		assertArrayEquals(before, repository.shardSizes());
+		assertAllReachable(repository);
+		// 失败之后写操作仍然可用，并且可以再加一个正常的分片
+		assertNotNull(repository.create("after@example.com", "password", "After"));
+		repository.addShard(localShard());
+		assertEquals(USERS + 1, repository.size());
+		assertAllReachable(repository);
+	}
+
+	@Test
+	public void conflictOnTheNewShardKeepsItsOwnUsers() {
+		ShardedUserRepository repository = new ShardedUserRepository(
+				Arrays.asList(localShard(), localShard()));
+		createUsers(repository);
+		// 同样的数据先试加一次，找一个会迁移到新分片的用户，让新分片上已有一个同 id 的用户
+		ShardedUserRepository probe = new ShardedUserRepository(Arrays.asList(localShard(), localShard()));
+		createUsers(probe);
+		LocalUserShard probed = localShard();
+		probe.addShard(probed);
+		List<User> moving = probed.findAll();
+		long conflictId = moving.get(moving.size() - 1).getId();
+		LocalUserShard occupied = localShard();
+		User stranger = new User(conflictId, "stranger@example.com", "password", "Stranger");
+		occupied.addAll(Arrays.asList(stranger));
+		try {
+			repository.addShard(occupied);
+			fail("addShard should fail");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("already exists"));
+		}
+		// 只撤销复制过去的用户，新分片原有的用户保留
+		assertEquals(1, occupied.size());
+		assertEquals("Stranger", occupied.findById(conflictId).getName());
+		assertAllReachable(repository);
+	}
+
+	@Test
+	public void restartedCoordinatorPagesTheShardsInsteadOfCopyingThem() {
+		List<LocalUserShard> shards = Arrays.asList(pagedOnlyShard(), pagedOnlyShard());
+		createUsers(new ShardedUserRepository(shards));
+		// 协调者重启：从分片的最大 id 之后继续分配，已有用户按 id 可以找到
+		ShardedUserRepository restarted = new ShardedUserRepository(shards);
+		assertAllReachable(restarted);
+		assertEquals(USERS + 1, restarted.create("next@example.com", "password", "Next").getId());
+		restarted.addShard(pagedOnlyShard());
+		assertEquals(USERS + 1, restarted.size());
+		assertAllReachable(restarted);
+	}
+
+	@Test
+	public void removeAllRemovesAcrossShards() {
+		ShardedUserRepository repository = new ShardedUserRepository(
+				Arrays.asList(new LocalUserShard(new CompactUserRepository(16, false)),
+						new LocalUserShard(new CompactUserRepository(16, false))));
+		List<User> created = createUsers(repository);
+		repository.removeAll(created.subList(0, USERS / 2));
+		assertEquals(USERS - USERS / 2, repository.size());
+		for (int i = 0; i < USERS; i++) {
+			User user = created.get(i);
+			if (i < USERS / 2) {
+				assertNull(repository.findById(user.getId()));
+				assertNull(repository.findByEmail(user.getEmail()));
+			} else {
+				assertEquals(user.getId(), repository.findByEmail(user.getEmail()).getId());
+			}
+		}
+	}
+
+	@Test
+	public void loopbackShardsServeConcurrentPipelinedRequests() throws Exception {
+		ShardedUserRepository repository = ShardedUserRepository.create(2, "loopback", ConcurrentUserRepository::new);
+		try {
+			List<User> created = createUsers(repository);
+			ExecutorService executor = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<Boolean>> futures = new ArrayList<>();
+				for (int t = 0; t < 8; t++) {
+					int offset = t;
+					futures.add(executor.submit((Callable<Boolean>) () -> {
+						for (int i = offset; i < USERS; i += 8) {
+							User user = created.get(i);
+							assertEquals(user.getEmail(), repository.findById(user.getId()).getEmail());
+						}
+						return true;
+					}));
+				}
+				for (Future<Boolean> future : futures) {
+					assertTrue(future.get());
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			repository.addShard(ShardedUserRepository.newShard("loopback", ConcurrentUserRepository::new));
+			assertEquals(USERS, repository.size());
+			assertAllReachable(repository);
+		} finally {
+			repository.close();
+		}
+	}
+
+	private static LocalUserShard localShard() {
+		return new LocalUserShard(new ConcurrentUserRepository());
+	}
+
+	/**
+	 * 不允许一次取回全部用户的分片，ShardedUserRepository 的启动和迁移只能分页读取。
+	 */
+	private static LocalUserShard pagedOnlyShard() {
+		return new LocalUserShard(new ConcurrentUserRepository()) {
+			@Override
+			public List<User> findAll() {
+				throw new AssertionError("findAll should not be used");
+			}
+		};
+	}
+
+	private static List<User> createUsers(ShardedUserRepository repository) {
+		List<User> created = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			created.add(repository.create("user" + i + "@example.com", "password", "User " + i));
+		}
+		return created;
+	}
+
+	private static void assertAllReachable(ShardedUserRepository repository) {
+		long[] ids = new long[USERS];
+		for (int i = 0; i < USERS; i++) {
+			User user = repository.findByEmail("user" + i + "@example.com");
+			assertNotNull("user" + i, user);
+			assertEquals(user.getEmail(), repository.findById(user.getId()).getEmail());
+			ids[i] = user.getId();
+		}
+		for (User user : repository.findAllById(ids)) {
+			assertNotNull(user);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.company.service.shard;
+
+import com.company.service.ConcurrentUserRepository;
+import com.company.service.User;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserShardServerTest {
+
+	private static final byte[] SECRET = "s3cret".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void clientWithTheWrongSecretIsRejected() throws Exception {
+		try (UserShardServer server = UserShardServer.loopback(shard(), SECRET);
+				RemoteUserShard client = new RemoteUserShard(server.getAddress(), "guess".getBytes(StandardCharsets.UTF_8))) {
+			try {
+				client.size();
+				fail("handshake should fail");
+			} catch (UncheckedIOException e) {
+				assertTrue(String.valueOf(e.getCause().getMessage()), e.getCause().getMessage().contains("rejected"));
+			}
+		}
+	}
+
+	@Test
+	public void outOfRangeBatchSizeClosesTheConnection() throws Exception {
+		try (UserShardServer server = UserShardServer.loopback(shard(), SECRET);
+				Socket socket = new Socket(server.getAddress().getAddress(), server.getPort())) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			ShardProtocol.answerChallenge(in, out, SECRET);
+			out.writeByte(ShardProtocol.FIND_BY_IDS);
+			out.writeInt(Integer.MAX_VALUE);
+			out.flush();
+			try {
+				in.readByte();
+				fail("server should close the connection");
+			} catch (EOFException | SocketException expected) {
+				// 服务端不按这个长度分配内存，直接断开
+			}
+		}
+	}
+
+	@Test
+	public void unauthenticatedConnectionsAreCapped() throws Exception {
+		List<Socket> idle = new ArrayList<>();
+		try (UserShardServer server = UserShardServer.loopback(shard(), SECRET)) {
+			// 占满握手名额：连上、读到 challenge 后不回答
+			for (int i = 0; i < UserShardServer.MAX_PENDING_HANDSHAKES; i++) {
+				Socket socket = new Socket(server.getAddress().getAddress(), server.getPort());
+				idle.add(socket);
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				assertEquals(ShardProtocol.HANDSHAKE_MAGIC, in.readInt());
+				in.readFully(new byte[ShardProtocol.NONCE_BYTES]);
+			}
+			try (Socket extra = new Socket(server.getAddress().getAddress(), server.getPort())) {
+				try {
+					assertEquals(-1, extra.getInputStream().read());
+				} catch (SocketException expected) {
+					// 连接被服务端直接关闭
+				}
+			}
+			for (Socket socket : idle) {
+				socket.close();
+			}
+			// 名额在握手线程看到断开后归还
+			try (RemoteUserShard client = new RemoteUserShard(server.getAddress(), SECRET)) {
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while (true) {
+					try {
+						assertEquals(0, client.size());
+						break;
+					} catch (UncheckedIOException e) {
+						if (System.nanoTime() > deadline) {
+							throw e;
+						}
+						Thread.sleep(10);
+					}
+				}
+			}
+		} finally {
+			for (Socket socket : idle) {
+				socket.close();
+			}
+		}
+	}
+
+	@Test
+	public void largeBatchesAreSplitBelowTheLimit() throws Exception {
+		try (UserShardServer server = UserShardServer.loopback(shard(), SECRET);
+				RemoteUserShard client = new RemoteUserShard(server.getAddress(), SECRET)) {
+			int count = ShardProtocol.MAX_BATCH + 10;
+			User[] users = new User[count];
+			long[] ids = new long[count];
+			for (int i = 0; i < count; i++) {
+				users[i] = new User(i + 1, "user" + i + "@example.com", "password", "U");
+				ids[i] = i + 1;
+			}
+			boolean[] added = client.addAll(Arrays.asList(users));
+			for (boolean value : added) {
+				assertTrue(value);
+			}
+			User[] found = client.findByIds(ids);
+			assertEquals(count, found.length);
+			assertEquals(count, found[count - 1].getId());
+			assertEquals(count, client.findAll().size());
+			assertEquals(count, client.maxId());
+			// 分页每页最多 MAX_BATCH 个，按 id 升序
+			List<User> first = client.findPage(Long.MIN_VALUE, Integer.MAX_VALUE);
+			assertEquals(ShardProtocol.MAX_BATCH, first.size());
+			assertEquals(1, first.get(0).getId());
+			assertEquals(ShardProtocol.MAX_BATCH, first.get(first.size() - 1).getId());
+			List<User> second = client.findPage(ShardProtocol.MAX_BATCH, ShardProtocol.MAX_BATCH);
+			assertEquals(10, second.size());
+			assertEquals(ShardProtocol.MAX_BATCH + 1, second.get(0).getId());
+			assertTrue(client.findPage(count, ShardProtocol.MAX_BATCH).isEmpty());
+			client.removeAll(Arrays.asList(users));
+			assertEquals(0, client.size());
+		}
+	}
+
+	private static LocalUserShard shard() {
+		return new LocalUserShard(new ConcurrentUserRepository());
+	}
+}
@@ -0,0 +1,107 @@
+package com.company.service.store;
+
+import com.company.service.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replayStopsAtTheEndAcrossChunks() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("users-1.log");
+		try (UserLog log = UserLog.create(path, 1, 1024)) {
+			for (long id = 1; id <= 50; id++) {
+				log.append(user(id));
+			}
+			log.force();
+		}
+		assertEquals(range(1, 50), replay(path));
+	}
+
+	@Test
+	public void rollbackRemovesTheBatchEvenAcrossChunkBoundaries() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("users-1.log");
+		try (UserLog log = UserLog.create(path, 1, 1024)) {
+			for (long id = 1; id <= 3; id++) {
+				log.append(user(id));
+			}
+			log.force();
+			UserLog.Mark mark = log.mark();
+			// 这一批跨过了块边界（写了 PADDING 并映射了下一块）
+			for (long id = 4; id <= 40; id++) {
+				log.append(user(id));
+			}
+			log.rollback(mark);
+			assertEquals(3, log.getRecords());
+			// 回滚后继续写，并且再次跨块
+			for (long id = 100; id <= 130; id++) {
+				log.append(user(id));
+			}
+			log.force();
+		}
+		List<Long> expected = range(1, 3);
+		expected.addAll(range(100, 130));
+		assertEquals(expected, replay(path));
+	}
+
+	@Test
+	public void reopenContinuesAfterTheLastCompleteRecord() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("users-1.log");
+		try (UserLog log = UserLog.create(path, 1, 1024)) {
+			for (long id = 1; id <= 30; id++) {
+				log.append(user(id));
+			}
+			UserLog.Mark end = log.mark();
+			log.append(user(31));
+			log.force();
+			// 模拟崩溃时写了一半的记录：校验和对不上
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer torn = channel.map(FileChannel.MapMode.READ_WRITE, end.chunkStart, 1024);
+				torn.put(end.position + 12, (byte) 0x7f);
+				torn.force();
+			}
+		}
+		assertEquals(range(1, 30), replay(path));
+		try (UserLog log = UserLog.open(path, 1)) {
+			assertEquals(30, log.getRecords());
+			for (long id = 32; id <= 60; id++) {
+				log.append(user(id));
+			}
+			log.force();
+		}
+		List<Long> expected = range(1, 30);
+		expected.addAll(range(32, 60));
+		assertEquals(expected, replay(path));
+	}
+
+	static User user(long id) {
+		return new User(id, "user" + id + "@example.com", "pbkdf2$1$salt$hash", "User " + id);
+	}
+
+	static List<Long> range(long from, long to) {
+		List<Long> ids = new ArrayList<>();
+		for (long id = from; id <= to; id++) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	private static List<Long> replay(Path path) throws Exception {
+		List<Long> ids = new ArrayList<>();
+		UserLog.replay(path, user -> ids.add(user.getId()));
+		return ids;
+	}
+}
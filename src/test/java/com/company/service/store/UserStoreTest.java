@@ -0,0 +1,230 @@
+package com.company.service.store;
+
+import com.company.service.ConcurrentUserRepository;
+import com.company.service.User;
+import com.company.service.UserRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UserStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void failedBatchIsNotReplayed() throws Exception {
+		UserStore store = open(new ConcurrentUserRepository(), 4096, 100000);
+		List<User> users = new ArrayList<>();
+		for (long id = 1; id <= 60; id++) {
+			users.add(id == 41 ? new User(id, "huge@example.com", "password", repeat('x', 5000)) : UserLogTest.user(id));
+		}
+		// 超过块大小的记录让它所在的那一批写到一半失败，这一批中已经写入的记录要被撤销
+		List<User> failed = store.appendAll(users);
+		assertTrue(failed.stream().anyMatch(user -> user.getId() == 41));
+		List<User> more = new ArrayList<>();
+		for (long id = 61; id <= 80; id++) {
+			more.add(UserLogTest.user(id));
+		}
+		assertTrue(store.appendAll(more).isEmpty());
+		store.shutdown();
+
+		Set<Long> expected = new TreeSet<>(UserLogTest.range(1, 80));
+		expected.removeAll(failed.stream().map(User::getId).collect(Collectors.toList()));
+		assertEquals(expected, recover());
+	}
+
+	@Test
+	public void snapshotOnlyContainsLoggedUsers() throws Exception {
+		UserRepository repository = new ConcurrentUserRepository();
+		UserStore store = open(repository, 1 << 16, 10);
+		// 只在内存中、没有持久化成功的用户（例如正在回滚的注册）不能进入快照
+		repository.add(new User(1000, "ghost@example.com", "password", "Ghost"));
+		for (long id = 1; id <= 25; id++) {
+			store.append(UserLogTest.user(id));
+		}
+		store.shutdown();
+
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			assertTrue(files.anyMatch(p -> p.getFileName().toString().startsWith("snapshot-")));
+		}
+		Set<Long> recovered = recover();
+		assertEquals(new TreeSet<>(UserLogTest.range(1, 25)), recovered);
+		assertFalse(recovered.contains(1000L));
+	}
+
+	@Test
+	public void snapshotsAccumulateAcrossRestarts() throws Exception {
+		UserStore store = open(new ConcurrentUserRepository(), 1 << 16, 10);
+		for (long id = 1; id <= 15; id++) {
+			store.append(UserLogTest.user(id));
+		}
+		store.shutdown();
+		UserRepository repository = new ConcurrentUserRepository();
+		store = open(repository, 1 << 16, 10);
+		for (long id = 16; id <= 35; id++) {
+			store.append(UserLogTest.user(id));
+		}
+		store.shutdown();
+		assertEquals(new TreeSet<>(UserLogTest.range(1, 35)), recover());
+	}
+
+	@Test
+	public void laterRecordOverridesPasswordOnRecovery() throws Exception {
+		UserStore store = open(new ConcurrentUserRepository(), 1 << 16, 10);
+		store.append(new User(1, "user1@example.com", "legacy", "User 1"));
+		// 登录时升级密文后追加的记录；之后的写入触发快照，两条记录都进入快照
+		store.append(UserLogTest.user(1));
+		for (long id = 2; id <= 15; id++) {
+			store.append(UserLogTest.user(id));
+		}
+		store.shutdown();
+
+		// AppConfig 中的初始用户在恢复之前就已经（以明文密码）加入存储
+		UserRepository repository = new ConcurrentUserRepository();
+		repository.add(new User(1, "user1@example.com", "legacy", "User 1"));
+		open(repository, 1 << 16, 100000).shutdown();
+		assertEquals(UserLogTest.user(1).getPassword(), repository.findById(1).getPassword());
+		assertEquals(15, repository.size());
+	}
+
+	@Test
+	public void restartsKeepAppendingToTheSameLog() throws Exception {
+		long id = 0;
+		for (int restart = 0; restart < 5; restart++) {
+			UserStore store = open(new ConcurrentUserRepository(), 1 << 16, 100000);
+			for (int i = 0; i < 3; i++) {
+				store.append(UserLogTest.user(++id));
+			}
+			store.shutdown();
+		}
+		assertEquals(1, files("users-").size());
+		assertEquals(new TreeSet<>(UserLogTest.range(1, 15)), recover());
+		assertEquals(1, files("users-").size());
+	}
+
+	@Test
+	public void leftoverLogsAreCompactedAtStartup() throws Exception {
+		Path root = folder.getRoot().toPath();
+		for (long generation = 1; generation <= 3; generation++) {
+			try (UserLog log = UserLog.create(root.resolve(String.format("users-%016d.log", generation)), generation,
+					1 << 16)) {
+				for (long id = generation * 10; id < generation * 10 + 5; id++) {
+					log.append(UserLogTest.user(id));
+				}
+			}
+		}
+		UserRepository repository = new ConcurrentUserRepository();
+		open(repository, 1 << 16, 100000).shutdown();
+		assertEquals(15, repository.size());
+		assertEquals(1, files("snapshot-").size());
+		assertEquals(1, files("users-").size());
+		assertEquals(15, recover().size());
+	}
+
+	@Test
+	public void snapshotKeepsOneRecordPerId() throws Exception {
+		UserStore store = open(new ConcurrentUserRepository(), 1 << 16, 10);
+		for (int update = 0; update < 5; update++) {
+			store.append(new User(1, "user1@example.com", "password" + update, "User 1"));
+		}
+		for (long id = 2; id <= 12; id++) {
+			store.append(UserLogTest.user(id));
+		}
+		store.shutdown();
+
+		List<Path> snapshots = files("snapshot-");
+		assertEquals(1, snapshots.size());
+		List<User> records = new ArrayList<>();
+		UserSnapshot.read(snapshots.get(0), records::add);
+		assertEquals(1, records.stream().filter(user -> user.getId() == 1).count());
+		assertEquals("password4", records.get(0).getPassword());
+		assertEquals(UserLogTest.range(1, records.size()),
+				records.stream().map(User::getId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void appendsRacingShutdownNeverHang() throws Exception {
+		for (int round = 0; round < 10; round++) {
+			UserStore store = open(new ConcurrentUserRepository(), 1 << 16, 100000);
+			ExecutorService appenders = Executors.newFixedThreadPool(4);
+			AtomicLong ids = new AtomicLong(round * 1_000_000L);
+			CountDownLatch started = new CountDownLatch(4);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(appenders.submit(() -> {
+					started.countDown();
+					try {
+						while (true) {
+							store.append(UserLogTest.user(ids.incrementAndGet()));
+						}
+					} catch (IllegalStateException e) {
+						// 已经关闭
+					} catch (UncheckedIOException e) {
+						// 写线程退出前没来得及写入
+					}
+				}));
+			}
+			started.await();
+			store.shutdown();
+			for (Future<?> future : futures) {
+				// 在最后一次 drainTo 之后入队的 append 会永远等下去
+				future.get(5, TimeUnit.SECONDS);
+			}
+			appenders.shutdown();
+		}
+	}
+
+	private List<Path> files(String prefix) throws IOException {
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			return files.filter(p -> p.getFileName().toString().startsWith(prefix)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private UserStore open(UserRepository repository, int chunkSize, long snapshotThreshold) throws IOException {
+		UserStore store = new UserStore();
+		store.userRepository = repository;
+		store.enabled = true;
+		store.dir = folder.getRoot().getAbsolutePath();
+		store.chunkSize = chunkSize;
+		store.snapshotThreshold = snapshotThreshold;
+		store.init();
+		return store;
+	}
+
+	private Set<Long> recover() throws Exception {
+		UserRepository repository = new ConcurrentUserRepository();
+		UserStore store = open(repository, 1 << 16, 100000);
+		store.shutdown();
+		return repository.findAll().stream().map(User::getId).collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	private static String repeat(char c, int n) {
+		char[] chars = new char[n];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
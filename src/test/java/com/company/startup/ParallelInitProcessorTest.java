@@ -0,0 +1,184 @@
+package com.company.startup;
+
+import com.company.metrics.BeanLifecycle;
+import com.company.metrics.InstrumentationPostProcessor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelInitProcessorTest {
+
+	// 各 @ParallelInit 方法按发生顺序记录 "start:bean" / "end:bean"
+	private static final List<String> events = Collections.synchronizedList(new ArrayList<>());
+	private static final Map<String, String> threads = Collections.synchronizedMap(new HashMap<>());
+
+	@Before
+	public void clear() {
+		events.clear();
+		threads.clear();
+	}
+
+	@Test
+	public void dependenciesFinishBeforeDependentsStart() {
+		try (AnnotationConfigApplicationContext context = context(true, Top.class, Middle.class, Plain.class,
+				Bottom.class, Independent.class)) {
+			// Top -> Middle -> Plain（没有 @ParallelInit）-> Bottom
+			assertBefore("end:bottom", "start:middle");
+			assertBefore("end:middle", "start:top");
+			assertEquals(8, events.size());
+			for (String thread : threads.values()) {
+				assertTrue(thread, thread.startsWith("parallel-init-"));
+			}
+		}
+	}
+
+	@Test
+	public void cycleFailsRefreshAndNamesTheBeans() {
+		try (AnnotationConfigApplicationContext context = context(true, CycleA.class, CycleB.class)) {
+			fail("refresh should fail on a cycle");
+		} catch (BeanInitializationException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Dependency cycle between @ParallelInit beans: "));
+			assertTrue(e.getMessage(), e.getMessage().contains("cycleA -> cycleB -> cycleA")
+					|| e.getMessage().contains("cycleB -> cycleA -> cycleB"));
+			assertTrue(events.isEmpty());
+		}
+	}
+
+	@Test
+	public void serialModeRunsDuringBeanCreation() {
+		String caller = Thread.currentThread().getName();
+		// 串行模式不建依赖图，互相注入的 Bean 也照常启动
+		try (AnnotationConfigApplicationContext context = context(false, Top.class, Middle.class, Plain.class,
+				Bottom.class, CycleA.class, CycleB.class)) {
+			assertEquals(10, events.size());
+			assertBefore("end:bottom", "start:middle");
+			assertBefore("end:middle", "start:top");
+			for (String thread : threads.values()) {
+				assertEquals(caller, thread);
+			}
+		}
+	}
+
+	@Test
+	public void deferredInitIsCountedInTheBeanLifecycle() {
+		try (AnnotationConfigApplicationContext context = context(true, InstrumentationPostProcessor.class,
+				Bottom.class, Independent.class)) {
+			InstrumentationPostProcessor instrumentation = context.getBean(InstrumentationPostProcessor.class);
+			Map<String, BeanLifecycle> lifecycles = new HashMap<>();
+			for (BeanLifecycle lifecycle : instrumentation.getMetrics().getBeanLifecycles()) {
+				assertEquals(null, lifecycles.put(lifecycle.getBeanName(), lifecycle));
+			}
+			assertTrue(lifecycles.get("bottom").getInitMicros() >= 20_000);
+			assertTrue(lifecycles.get("independent").getInitMicros() >= 20_000);
+			assertNotEquals("", lifecycles.get("bottom").getBeanClass());
+		}
+	}
+
+	private static AnnotationConfigApplicationContext context(boolean parallel, Class<?>... beans) {
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("app.startup.parallel", String.valueOf(parallel));
+		properties.put("app.startup.threads", "4");
+		properties.put("app.metrics.jmx", "false");
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+		context.register(ParallelInitProcessor.class);
+		for (Class<?> bean : beans) {
+			String name = Character.toLowerCase(bean.getSimpleName().charAt(0)) + bean.getSimpleName().substring(1);
+			context.registerBean(name, bean);
+		}
+		context.refresh();
+		return context;
+	}
+
+	private static void assertBefore(String first, String second) {
+		int i = events.indexOf(first);
+		int j = events.indexOf(second);
+		assertTrue(first + " missing in " + events, i >= 0);
+		assertTrue(second + " missing in " + events, j >= 0);
+		assertTrue(events.toString(), i < j);
+	}
+
+	private static void init(String name) {
+		threads.put(name, Thread.currentThread().getName());
+		events.add("start:" + name);
+		try {
+			Thread.sleep(20);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		events.add("end:" + name);
+	}
+
+	static class Top {
+		@Autowired
+		Middle middle;
+
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("top");
+		}
+	}
+
+	static class Middle {
+		@Autowired
+		Plain plain;
+
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("middle");
+		}
+	}
+
+	static class Plain {
+		@Autowired
+		Bottom bottom;
+	}
+
+	static class Bottom {
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("bottom");
+		}
+	}
+
+	static class Independent {
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("independent");
+		}
+	}
+
+	static class CycleA {
+		@Autowired
+		CycleB cycleB;
+
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("cycleA");
+		}
+	}
+
+	static class CycleB {
+		@Autowired
+		CycleA cycleA;
+
+		@ParallelInit
+		void init() {
+			ParallelInitProcessorTest.init("cycleB");
+		}
+	}
+}